@@ -1,17 +1,28 @@
+import data.ColumnStore;
+import data.DataStatistics;
+import data.StatisticsCache;
+import data.SufficientStatistics;
+import data.WindowedStatistics;
 import evaluation.Evaluation;
 import model.Network;
 import model.Node;
 import org.apache.commons.cli.*;
+import search.BayesianScoring;
+import search.FamilyScoreCache;
 import search.HillClimbing;
 import search.LocalSearching;
+import search.ScoreFunction;
+import search.ScoringStatistics;
 import search.SimulatedAnnealing;
-import utils.GraphFunctions;
+import search.SlidingWindowSearch;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * Created by Benedek on 3/17/2016.
@@ -27,6 +38,14 @@ public class BayesNetwork {
     private static String structureFileName;
     private static String savedNetworkFileName = null;
     private static boolean evalOnly = false;
+    private static boolean useStatisticsCache = true;
+    private static boolean incremental = false;
+    private static int windowSize = 0;
+    private static int windowStride = 0;
+    private static boolean columnStore = false;
+    private static boolean offHeap = false;
+    private static long familyCacheSize = 64;
+    private static int numberOfThreads = Runtime.getRuntime().availableProcessors();
     private static double lambda = 0;
 
 
@@ -44,7 +63,15 @@ public class BayesNetwork {
                 .addOption("eo", "evaluation-only", false, "if you only wish to evaluate the network")
                 .addOption("lb", "lambda", true, "specify how strong the regularization should be (default=0)")
                 .addOption("re", "random-edges", true, "specify how many random edges should the graph contain")
-                .addOption("dr", "data-rows", true, "specify the first how many rows should be used for searching");
+                .addOption("dr", "data-rows", true, "specify the first how many rows should be used for searching")
+                .addOption("nc", "no-cache", false, "do not read or write the statistics cache of the data file")
+                .addOption("in", "incremental", false, "only read the rows appended to the data file since the statistics were cached")
+                .addOption("ws", "window-size", true, "learn from a sliding window of this many rows, streaming the data file row by row")
+                .addOption("wt", "window-stride", true, "specify after how many new rows the search should be restarted on the window (default=window size)")
+                .addOption("cs", "column-store", false, "keep the data in memory and compute the scatter matrix entries when they are needed, for data with very many columns")
+                .addOption("oh", "off-heap", false, "keep the columns of the column store outside of the Java heap")
+                .addOption("fc", "family-cache", true, "specify how many MB the cache of the family scores may use (default=64, 0 turns it off)")
+                .addOption("th", "threads", true, "specify how many threads should score the moves of the hill climbing (default=number of processors)");
 
         String searchAlgorithmParam = "";
         Integer numberOfSteps = 10000;
@@ -87,6 +114,40 @@ public class BayesNetwork {
                 numberOfLinesToUse = Integer.valueOf(line.getOptionValue("dr"));
             }
 
+            if (line.hasOption("nc")) {
+                useStatisticsCache = false;
+            }
+
+            if (line.hasOption("in")) {
+                incremental = true;
+            }
+
+            if (line.hasOption("ws")) {
+                windowSize = Integer.valueOf(line.getOptionValue("ws"));
+                windowStride = windowSize;
+            }
+
+            if (line.hasOption("wt")) {
+                windowStride = Integer.valueOf(line.getOptionValue("wt"));
+            }
+
+            if (line.hasOption("cs")) {
+                columnStore = true;
+            }
+
+            if (line.hasOption("oh")) {
+                columnStore = true;
+                offHeap = true;
+            }
+
+            if (line.hasOption("fc")) {
+                familyCacheSize = Long.valueOf(line.getOptionValue("fc"));
+            }
+
+            if (line.hasOption("th")) {
+                numberOfThreads = Integer.valueOf(line.getOptionValue("th"));
+            }
+
 
         } catch (ParseException exp) {
             System.out.println("ParseException: " + exp.getMessage());
@@ -124,36 +185,105 @@ public class BayesNetwork {
                 return;
             }
 
-            importNetworkFromCSV(realNetwork, dataFileName, structureFileName);
+            importNetworkFromCSV(realNetwork, readNamesOfNodes(dataFileName), structureFileName);
         } else {
             if (numberOfSteps <= 0) {
                 System.out.println("The number of steps specified is invalid. Exiting...");
                 return;
             }
 
+            if (numberOfThreads < 1) {
+                System.out.println("The number of threads specified is invalid. Exiting...");
+                return;
+            }
+
+            if (windowSize < 0 || windowStride < 0 || (windowSize > 0 && windowStride == 0)) {
+                System.out.println("The window size or stride specified is invalid. Exiting...");
+                return;
+            }
+
+            if (columnStore && (windowSize > 0 || incremental)) {
+                System.out.println("The column store can not be used in window or incremental mode. Exiting...");
+                return;
+            }
+
+            if (incremental && !useStatisticsCache) {
+                System.out.println("The incremental mode needs the statistics cache. Exiting...");
+                return;
+            }
+
+            // the data file is read at most once, the header comes from the statistics as well
+            // (in window mode the rows are streamed later, so only the header is read here)
+            DataStatistics statistics = null;
+            List<String> namesOfNodes;
+            if (windowSize > 0) {
+                namesOfNodes = readNamesOfNodes(dataFileName);
+            } else if (columnStore) {
+                statistics = ColumnStore.fromCSV(dataFileName, numberOfLinesToUse, offHeap, ColumnStore.DEFAULT_CACHE_SIZE);
+                if (statistics == null) {
+                    System.out.println("The data file could not be read! Exiting...");
+                    return;
+                }
+                namesOfNodes = statistics.getNamesOfNodes();
+            } else {
+                statistics = useStatisticsCache
+                        ? StatisticsCache.loadOrCompute(dataFileName, numberOfLinesToUse, incremental)
+                        : SufficientStatistics.fromCSV(dataFileName, numberOfLinesToUse);
+                if (statistics == null) {
+                    System.out.println("The data file could not be read! Exiting...");
+                    return;
+                }
+                namesOfNodes = statistics.getNamesOfNodes();
+            }
+
             if (savedNetworkFileName != null) {
                 network = new Network(savedNetworkFileName);
             } else {
-                importEmptyNetworkFromCSV(network, dataFileName);
+                importEmptyNetworkFromCSV(network, namesOfNodes);
             }
 
-            importNetworkFromCSV(realNetwork, dataFileName, structureFileName);
+            importNetworkFromCSV(realNetwork, namesOfNodes, structureFileName);
             addRandomDAGEdgesToEmptyNetwork(network, numberOfRandomEdges);
 
-            LocalSearching localSearching;
+            // one cache for the whole run, emptied whenever the search starts on new statistics
+            FamilyScoreCache familyScoreCache = familyCacheSize > 0 ? new FamilyScoreCache(namesOfNodes.size(), familyCacheSize << 20) : null;
+            Function<DataStatistics, ScoreFunction> scoreFunctionFactory = s -> {
+                if (familyScoreCache != null) {
+                    familyScoreCache.clear();
+                }
+                return new BayesianScoring(new ScoringStatistics(s), familyScoreCache);
+            };
+            Function<DataStatistics, LocalSearching> searchFactory;
+            int steps = numberOfSteps;
             switch (searchAlgorithmParam) {
                 case "hillclimbing":
                 case "hc":
-                    localSearching = new HillClimbing(network, numberOfLinesToUse, dataFileName, numberOfSteps, lambda);
+                    searchFactory = s -> {
+                        HillClimbing hillClimbing = new HillClimbing(network, scoreFunctionFactory.apply(s), steps, lambda);
+                        hillClimbing.setNumberOfThreads(numberOfThreads);
+                        return hillClimbing;
+                    };
                     break;
                 case "simulatedannealing":
                 case "sa":
                 default:
                     // default searching algorithm is simulated annealing
-                    localSearching = new SimulatedAnnealing(network, numberOfLinesToUse, dataFileName, numberOfSteps, lambda);
+                    searchFactory = s -> new SimulatedAnnealing(network, scoreFunctionFactory.apply(s), steps, lambda);
                     break;
             }
-            localSearching.doSearch();
+
+            if (windowSize > 0) {
+                SlidingWindowSearch slidingWindowSearch = new SlidingWindowSearch(network,
+                        new WindowedStatistics(namesOfNodes, windowSize), windowStride, searchFactory);
+                try {
+                    slidingWindowSearch.doSearch(dataFileName, numberOfLinesToUse);
+                } catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            } else {
+                searchFactory.apply(statistics).doSearch();
+            }
 
             LocalDateTime datetime = LocalDateTime.now();
             String timestamp = datetime.format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
@@ -170,8 +300,8 @@ public class BayesNetwork {
         network.printNetwork();
     }
 
-    private static void importNetworkFromCSV(Network network, String nodesFileName, String edgesFileName) {
-        importEmptyNetworkFromCSV(network, nodesFileName);
+    private static void importNetworkFromCSV(Network network, List<String> namesOfNodes, String edgesFileName) {
+        importEmptyNetworkFromCSV(network, namesOfNodes);
 
         try {
             Scanner scanner = new Scanner(new File(edgesFileName));
@@ -189,19 +319,22 @@ public class BayesNetwork {
         }
     }
 
-    private static void importEmptyNetworkFromCSV(Network network, String fileName) {
+    private static void importEmptyNetworkFromCSV(Network network, List<String> namesOfNodes) {
+        numberOfVertices = namesOfNodes.size();
+        for (int i = 0; i < numberOfVertices; i++) {
+            network.addNode(new Node(namesOfNodes.get(i), network));
+        }
+    }
+
+    private static List<String> readNamesOfNodes(String fileName) {
         try {
             Scanner scanner = new Scanner(new File(fileName));
-            scanner.useDelimiter(",");
             String headerLine = scanner.nextLine();
-            ArrayList<String> headers = new ArrayList<String>(Arrays.asList(headerLine.split(",")));
-            numberOfVertices = headers.size();
-            for (int i = 0; i < numberOfVertices; i++) {
-                network.addNode(new Node(headers.get(i), network));
-            }
+            return new ArrayList<String>(Arrays.asList(headerLine.split(",")));
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
+        return new ArrayList<>();
     }
 
     private static void addRandomDAGEdgesToEmptyNetwork(Network network, int numberOfEdges) {
@@ -214,7 +347,7 @@ public class BayesNetwork {
         for (int i = 0; i < numberOfEdges; i++) {
             Node parent = nodes.get(random.nextInt(nodes.size()));
             Node child = nodes.get(random.nextInt(nodes.size()));
-            if (parent != child && !GraphFunctions.containsEdge(network.getEdges(), parent, child) && !network.violatesDAG(parent, child)) {
+            if (parent != child && !network.containsEdge(parent, child) && !network.violatesDAG(parent, child)) {
                 network.addNewEdge(parent, child);
             } else {
                 i--;
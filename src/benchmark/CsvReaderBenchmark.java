@@ -0,0 +1,92 @@
+package benchmark;
+
+import data.MappedCsvReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Scanner;
+
+/**
+ * Compares the throughput of the Scanner + String.split path the data used to be read with
+ * against the memory-mapped reader, row by row and into column buffers.
+ * Usage: CsvReaderBenchmark data.csv [number of repetitions]
+ */
+public class CsvReaderBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: CsvReaderBenchmark data.csv [number of repetitions]");
+            return;
+        }
+        String fileName = args[0];
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double megabytes = new File(fileName).length() / (1024.0 * 1024.0);
+
+        for (int i = 0; i < repetitions; i++) {
+            long startTime = System.nanoTime();
+            double scannerSum = readWithScanner(fileName);
+            double scannerTime = (System.nanoTime() - startTime) / 1000000000.0;
+
+            startTime = System.nanoTime();
+            double rowSum = readRows(fileName);
+            double rowTime = (System.nanoTime() - startTime) / 1000000000.0;
+
+            startTime = System.nanoTime();
+            double columnSum = readColumns(fileName);
+            double columnTime = (System.nanoTime() - startTime) / 1000000000.0;
+
+            if (scannerSum != rowSum || scannerSum != columnSum) {
+                System.out.println("The readers do not agree: " + scannerSum + " " + rowSum + " " + columnSum);
+            }
+            System.out.println("Round " + (i + 1) + ":\tscanner " + megabytes / scannerTime + " MB/s"
+                    + "\tmapped rows " + megabytes / rowTime + " MB/s"
+                    + "\tmapped columns " + megabytes / columnTime + " MB/s");
+        }
+    }
+
+    private static double readWithScanner(String fileName) throws IOException {
+        double sum = 0;
+        Scanner scanner = new Scanner(new File(fileName));
+        int numberOfColumns = scanner.nextLine().split(",").length;
+        while (scanner.hasNextLine()) {
+            String[] values = scanner.nextLine().split(",");
+            for (int i = 0; i < numberOfColumns; i++) {
+                sum += Double.valueOf(values[i]);
+            }
+        }
+        scanner.close();
+        return sum;
+    }
+
+    private static double readRows(String fileName) throws IOException {
+        double sum = 0;
+        try (MappedCsvReader reader = new MappedCsvReader(fileName)) {
+            double[] values = new double[reader.getNamesOfNodes().size()];
+            while (reader.readRow(values)) {
+                for (double value : values) {
+                    sum += value;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static double readColumns(String fileName) throws IOException {
+        double sum = 0;
+        try (MappedCsvReader reader = new MappedCsvReader(fileName)) {
+            int numberOfColumns = reader.getNamesOfNodes().size();
+            int capacity = 1024;
+            double[] columns = new double[capacity * numberOfColumns];
+            int rows;
+            while ((rows = reader.readColumns(columns, capacity)) > 0) {
+                // sum in row order so the result is comparable to the other readers
+                for (int row = 0; row < rows; row++) {
+                    for (int column = 0; column < numberOfColumns; column++) {
+                        sum += columns[row + column * capacity];
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,109 @@
+package benchmark;
+
+import org.jblas.Decompose;
+import org.jblas.DoubleMatrix;
+import utils.Cholesky;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the logarithm of the determinant computed the way the scoring used to do it (LU
+ * decomposition, product of the diagonals, sign of the permutation from the inversions) with the
+ * Cholesky kernel, on random positive definite matrices of the sizes of typical families.
+ * Every size is run for a while first, so both paths are compiled by the JIT before they are timed.
+ * Usage: LogDeterminantBenchmark [number of iterations]
+ */
+public class LogDeterminantBenchmark {
+
+    public static void main(String[] args) {
+        int numberOfIterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Random random = new Random(0);
+
+        for (int k : new int[]{2, 4, 8, 11, 16, 32, 64}) {
+            DoubleMatrix matrix = randomPositiveDefinite(k, random);
+            double[] scratch = new double[k * k];
+
+            double luResult = 0;
+            double choleskyResult = 0;
+            long luTime = 0;
+            long choleskyTime = 0;
+            for (int round = 0; round < 2; round++) {
+                long startTime = System.nanoTime();
+                for (int i = 0; i < numberOfIterations; i++) {
+                    luResult = Math.log(getDeterminant(matrix));
+                }
+                luTime = System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                for (int i = 0; i < numberOfIterations; i++) {
+                    System.arraycopy(matrix.data, 0, scratch, 0, k * k);
+                    choleskyResult = Cholesky.logDeterminant(scratch, k);
+                }
+                choleskyTime = System.nanoTime() - startTime;
+            }
+
+            System.out.println("k = " + k + ":"
+                    + "\tLU " + luTime / (double) numberOfIterations + " ns"
+                    + "\tCholesky " + choleskyTime / (double) numberOfIterations + " ns"
+                    + "\tspeedup " + luTime / (double) choleskyTime
+                    + "\tdifference " + Math.abs(luResult - choleskyResult));
+        }
+    }
+
+    private static DoubleMatrix randomPositiveDefinite(int k, Random random) {
+        DoubleMatrix a = new DoubleMatrix(2 * k, k);
+        for (int i = 0; i < a.length; i++) {
+            a.put(i, random.nextGaussian());
+        }
+        return a.transpose().mmul(a).add(DoubleMatrix.eye(k));
+    }
+
+    private static double getDeterminant(DoubleMatrix matrix) {
+        Decompose.LUDecomposition<DoubleMatrix> LUDecomposition = Decompose.lu(matrix);
+
+        Double determinant = 1.0;
+        for (int i = 0; i < LUDecomposition.l.columns; i++) {
+            determinant *= LUDecomposition.l.get(i, i);
+            determinant *= LUDecomposition.u.get(i, i);
+        }
+        determinant *= getSignOfPermutation(LUDecomposition.p);
+
+        return determinant;
+    }
+
+    private static Integer getSignOfPermutation(DoubleMatrix p) {
+        List<Integer> inversions = new ArrayList<>(Collections.nCopies(p.rows, 0));
+
+        List<Integer> permutation = new ArrayList<>(Collections.nCopies(p.rows, 0));
+        for (int i = 0; i < p.rows; i++) {
+            for (int j = 0; j < p.columns; j++) {
+                if (p.get(i, j) > 0) {
+                    permutation.set(i, j);
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < permutation.size(); i++) {
+            int numberOfInversions = 0;
+            for (int j = i + 1; j < permutation.size(); j++) {
+                if (permutation.get(i) > permutation.get(j)) {
+                    numberOfInversions++;
+                }
+            }
+            inversions.set(i, numberOfInversions);
+        }
+
+        int sum = 0;
+        for (Integer i : inversions) {
+            if (i > 0) {
+                sum += i;
+            }
+        }
+
+        return sum % 2 == 0 ? 1 : -1;
+    }
+}
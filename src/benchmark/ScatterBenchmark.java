@@ -0,0 +1,85 @@
+package benchmark;
+
+import data.SufficientStatistics;
+import org.jblas.DoubleMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how long it takes to build the scatter matrix of random data with the per-row outer
+ * products the scoring used to do, with the row by row Welford update and with the blocked
+ * rank-k update, for n = 100, 500 and 2000 columns.
+ * Usage: ScatterBenchmark [number of rows]
+ */
+public class ScatterBenchmark {
+    private static final int BLOCK_SIZE = 256;
+
+    public static void main(String[] args) {
+        int numberOfRows = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        Random random = new Random(0);
+
+        for (int n : new int[]{100, 500, 2000}) {
+            double[][] rows = new double[numberOfRows][n];
+            for (double[] row : rows) {
+                for (int i = 0; i < n; i++) {
+                    row[i] = random.nextGaussian();
+                }
+            }
+            List<String> namesOfNodes = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                namesOfNodes.add("Gene" + i);
+            }
+
+            long startTime = System.nanoTime();
+            DoubleMatrix outerProducts = withOuterProducts(rows, n);
+            double outerProductTime = (System.nanoTime() - startTime) / 1000000000.0;
+
+            startTime = System.nanoTime();
+            SufficientStatistics rowByRow = new SufficientStatistics(namesOfNodes);
+            for (double[] row : rows) {
+                rowByRow.addRow(row);
+            }
+            double rowByRowTime = (System.nanoTime() - startTime) / 1000000000.0;
+
+            startTime = System.nanoTime();
+            SufficientStatistics blocked = new SufficientStatistics(namesOfNodes);
+            double[] block = new double[BLOCK_SIZE * n];
+            for (int first = 0; first < numberOfRows; first += BLOCK_SIZE) {
+                int size = Math.min(BLOCK_SIZE, numberOfRows - first);
+                for (int row = 0; row < size; row++) {
+                    for (int col = 0; col < n; col++) {
+                        block[row + col * BLOCK_SIZE] = rows[first + row][col];
+                    }
+                }
+                blocked.addBlock(block, size, BLOCK_SIZE);
+            }
+            double blockedTime = (System.nanoTime() - startTime) / 1000000000.0;
+
+            double difference = outerProducts.sub(blocked.getScatter()).normmax() / outerProducts.normmax();
+            System.out.println("n = " + n + ", " + numberOfRows + " rows:"
+                    + "\touter products " + outerProductTime + " s"
+                    + "\trow by row " + rowByRowTime + " s"
+                    + "\tblocked " + blockedTime + " s"
+                    + "\tspeedup " + outerProductTime / blockedTime
+                    + "\trelative difference " + difference);
+        }
+    }
+
+    private static DoubleMatrix withOuterProducts(double[][] rows, int n) {
+        DoubleMatrix mean = DoubleMatrix.zeros(n, 1);
+        for (double[] row : rows) {
+            mean.addi(new DoubleMatrix(row));
+        }
+        mean.divi(rows.length);
+
+        DoubleMatrix sumOfVariances = new DoubleMatrix(n, n);
+        for (double[] row : rows) {
+            DoubleMatrix deviation = new DoubleMatrix(row).sub(mean);
+            DoubleMatrix variance = deviation.mmul(deviation.transpose());
+            sumOfVariances = sumOfVariances.add(variance);
+        }
+        return sumOfVariances;
+    }
+}
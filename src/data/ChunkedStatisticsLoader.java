@@ -0,0 +1,170 @@
+package data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes the statistics of a csv file in parallel: the data rows are split into byte ranges
+ * aligned on line boundaries, every range gets its own mean and scatter matrix (accumulated in
+ * blocks of rows), and the partial results are merged pairwise on the fork/join pool.
+ */
+public class ChunkedStatisticsLoader {
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_NUMBER_OF_CHUNKS = 256;
+    // the number of rows in one rank-k update of the scatter matrix
+    private static final int BLOCK_SIZE = 256;
+
+    /**
+     * @param fileName           csv file containing the data, the first line being the header
+     * @param numberOfLinesToUse the first how many rows should be used
+     * @param pool               the pool the chunks are processed on
+     * @return the statistics of the data
+     */
+    public static SufficientStatistics load(String fileName, int numberOfLinesToUse, ForkJoinPool pool) throws IOException {
+        List<String> namesOfNodes;
+        long dataStart;
+        try (MappedCsvReader reader = new MappedCsvReader(fileName)) {
+            namesOfNodes = reader.getNamesOfNodes();
+            dataStart = reader.getPosition();
+        }
+        return load(fileName, namesOfNodes, dataStart, numberOfLinesToUse, pool);
+    }
+
+    /**
+     * computes the statistics of the rows after the given offset, used for reading rows appended to a file
+     *
+     * @param fileName           csv file containing the data
+     * @param namesOfNodes       the header of the file
+     * @param dataStart          offset of the first byte to read, the start or the end of a line
+     * @param numberOfLinesToUse the maximum number of rows to use
+     * @param pool               the pool the chunks are processed on
+     * @return the statistics of the rows read
+     */
+    public static SufficientStatistics load(String fileName, List<String> namesOfNodes, long dataStart,
+                                            int numberOfLinesToUse, ForkJoinPool pool) throws IOException {
+        long end = new File(fileName).length();
+        long[] boundaries = splitIntoChunks(fileName, dataStart, end);
+        int numberOfChunks = boundaries.length - 1;
+
+        // the chunks only know their own rows, so the row limit is split up by counting the lines first,
+        // unless the file is too short to contain more rows than the limit anyway
+        int[] quotas = new int[numberOfChunks];
+        long maxNumberOfRows = (end - dataStart) / (2L * namesOfNodes.size()) + 1;
+        if (numberOfLinesToUse >= maxNumberOfRows) {
+            for (int i = 0; i < numberOfChunks; i++) {
+                quotas[i] = numberOfLinesToUse;
+            }
+        } else {
+            List<ForkJoinTask<Long>> counts = new ArrayList<>();
+            for (int i = 0; i < numberOfChunks; i++) {
+                long start = boundaries[i];
+                long stop = boundaries[i + 1];
+                counts.add(pool.submit(() -> countRows(fileName, namesOfNodes, start, stop)));
+            }
+            long remaining = numberOfLinesToUse;
+            for (int i = 0; i < numberOfChunks; i++) {
+                quotas[i] = (int) Math.min(remaining, join(counts.get(i)));
+                remaining -= quotas[i];
+            }
+        }
+
+        try {
+            return pool.invoke(new ChunkTask(fileName, namesOfNodes, boundaries, quotas, 0, numberOfChunks));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static long[] splitIntoChunks(String fileName, long dataStart, long end) throws IOException {
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, (end - dataStart) / MAX_NUMBER_OF_CHUNKS + 1);
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(dataStart);
+        long boundary = dataStart + chunkSize;
+        while (boundary < end) {
+            long lineStart = MappedCsvReader.findLineStart(fileName, boundary);
+            if (lineStart > boundaries.get(boundaries.size() - 1) && lineStart < end) {
+                boundaries.add(lineStart);
+            }
+            boundary = Math.max(lineStart, boundary) + chunkSize;
+        }
+        boundaries.add(end);
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    private static long countRows(String fileName, List<String> namesOfNodes, long start, long end) {
+        try (MappedCsvReader reader = new MappedCsvReader(fileName, namesOfNodes, start, end)) {
+            return reader.countRows();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long join(ForkJoinTask<Long> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ChunkTask extends RecursiveTask<SufficientStatistics> {
+        private static final long serialVersionUID = 1L;
+
+        private final String fileName;
+        private final List<String> namesOfNodes;
+        private final long[] boundaries;
+        private final int[] quotas;
+        private final int from, to;
+
+        ChunkTask(String fileName, List<String> namesOfNodes, long[] boundaries, int[] quotas, int from, int to) {
+            this.fileName = fileName;
+            this.namesOfNodes = namesOfNodes;
+            this.boundaries = boundaries;
+            this.quotas = quotas;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected SufficientStatistics compute() {
+            if (to - from > 1) {
+                int middle = (from + to) / 2;
+                ChunkTask left = new ChunkTask(fileName, namesOfNodes, boundaries, quotas, from, middle);
+                ChunkTask right = new ChunkTask(fileName, namesOfNodes, boundaries, quotas, middle, to);
+                left.fork();
+                SufficientStatistics statistics = right.compute();
+                SufficientStatistics leftStatistics = left.join();
+                // merging into the left half keeps the order of the rows, so the result does not depend on the scheduling
+                leftStatistics.merge(statistics);
+                return leftStatistics;
+            }
+
+            SufficientStatistics statistics = new SufficientStatistics(namesOfNodes);
+            if (quotas[from] == 0) {
+                return statistics;
+            }
+            try (MappedCsvReader reader = new MappedCsvReader(fileName, namesOfNodes, boundaries[from], boundaries[from + 1])) {
+                double[] block = new double[BLOCK_SIZE * statistics.size()];
+                int rows;
+                while ((rows = reader.readColumns(block, BLOCK_SIZE, Math.min(BLOCK_SIZE, quotas[from] - statistics.getDataLength()))) > 0) {
+                    statistics.addBlock(block, rows, BLOCK_SIZE);
+                }
+                statistics.setDataEnd(reader.getPosition());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return statistics;
+        }
+    }
+}
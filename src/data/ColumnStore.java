@@ -0,0 +1,195 @@
+package data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the data itself instead of the scatter matrix, for data sets with so many columns that
+ * the n x n matrix would not fit in the memory. Every column is stored centred on its mean in a
+ * primitive buffer of its own, on the heap or outside of it. The entries of the scatter matrix
+ * are the dot products of two columns; they are computed when the scoring asks for them and kept
+ * in a cache of a fixed number of entries, so the memory used grows with the families visited
+ * during the search rather than with n squared.
+ */
+public class ColumnStore implements DataStatistics {
+    public static final int DEFAULT_CACHE_SIZE = 1 << 20;
+    private static final int BLOCK_SIZE = 256;
+    private static final int NUMBER_OF_LOCKS = 64;
+
+    private final List<String> namesOfNodes;
+    private final int n;
+    private final int dataLength;
+    private final double[] mean;
+    // the diagonal of the scatter matrix is needed by every family, so it is not left to the cache
+    private final double[] diagonal;
+    private final DoubleBuffer[] columns;
+
+    // direct-mapped cache of the entries above the diagonal, an entry simply replaces the one in its slot
+    private final long[] cacheKeys;
+    private final double[] cacheValues;
+    private final int cacheMask;
+    // the slots are guarded by these, so several threads can score with the same store
+    private final Object[] locks = new Object[NUMBER_OF_LOCKS];
+
+    private ColumnStore(List<String> namesOfNodes, int dataLength, boolean offHeap, int cacheSize) {
+        this.namesOfNodes = namesOfNodes;
+        n = namesOfNodes.size();
+        this.dataLength = dataLength;
+        mean = new double[n];
+        diagonal = new double[n];
+        columns = new DoubleBuffer[n];
+        if (offHeap && dataLength > Integer.MAX_VALUE / Double.BYTES) {
+            // a direct buffer is indexed by int bytes
+            throw new IllegalArgumentException("A column of " + dataLength + " rows does not fit into an off-heap buffer, at most "
+                    + Integer.MAX_VALUE / Double.BYTES + " rows can be stored off-heap.");
+        }
+        for (int i = 0; i < n; i++) {
+            columns[i] = offHeap
+                    ? ByteBuffer.allocateDirect(dataLength * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer()
+                    : DoubleBuffer.allocate(dataLength);
+        }
+
+        int slots = Integer.highestOneBit(Math.max(1, cacheSize));
+        cacheKeys = new long[slots];
+        cacheValues = new double[slots];
+        cacheMask = slots - 1;
+        Arrays.fill(cacheKeys, -1);
+        for (int i = 0; i < NUMBER_OF_LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * reads the first numberOfLinesToUse rows of the csv file into the store
+     *
+     * @param fileName           csv file containing the data, the first line being the header
+     * @param numberOfLinesToUse the first how many rows should be used
+     * @param offHeap            store the columns outside of the Java heap
+     * @param cacheSize          the number of scatter matrix entries kept in the cache
+     * @return the store, or null if the file could not be read
+     */
+    public static ColumnStore fromCSV(String fileName, int numberOfLinesToUse, boolean offHeap, int cacheSize) {
+        try {
+            List<String> namesOfNodes;
+            long dataStart;
+            long rows;
+            try (MappedCsvReader reader = new MappedCsvReader(fileName)) {
+                namesOfNodes = reader.getNamesOfNodes();
+                dataStart = reader.getPosition();
+                rows = Math.min(numberOfLinesToUse, reader.countRows());
+            }
+
+            ColumnStore store = new ColumnStore(namesOfNodes, (int) rows, offHeap, cacheSize);
+            try (MappedCsvReader reader = new MappedCsvReader(fileName, namesOfNodes, dataStart, new File(fileName).length())) {
+                store.read(reader);
+            }
+            store.centre();
+            return store;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private void read(MappedCsvReader reader) throws IOException {
+        double[] block = new double[BLOCK_SIZE * n];
+        int first = 0;
+        int rows;
+        while (first < dataLength && (rows = reader.readColumns(block, BLOCK_SIZE, Math.min(BLOCK_SIZE, dataLength - first))) > 0) {
+            for (int col = 0; col < n; col++) {
+                DoubleBuffer column = columns[col];
+                int offset = col * BLOCK_SIZE;
+                for (int row = 0; row < rows; row++) {
+                    column.put(first + row, block[offset + row]);
+                }
+            }
+            first += rows;
+        }
+    }
+
+    /**
+     * subtracts the means from the columns (two passes over the data, which is more accurate
+     * than accumulating the products of the raw values) and computes the diagonal of the scatter matrix
+     */
+    private void centre() {
+        for (int col = 0; col < n; col++) {
+            DoubleBuffer column = columns[col];
+            double sum = 0;
+            for (int row = 0; row < dataLength; row++) {
+                sum += column.get(row);
+            }
+            mean[col] = dataLength > 0 ? sum / dataLength : 0;
+
+            double sumOfSquares = 0;
+            for (int row = 0; row < dataLength; row++) {
+                double deviation = column.get(row) - mean[col];
+                column.put(row, deviation);
+                sumOfSquares += deviation * deviation;
+            }
+            diagonal[col] = sumOfSquares;
+        }
+    }
+
+    @Override
+    public List<String> getNamesOfNodes() {
+        return namesOfNodes;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    @Override
+    public double getMean(int index) {
+        return mean[index];
+    }
+
+    @Override
+    public double getScatter(int row, int column) {
+        if (row == column) {
+            return diagonal[row];
+        }
+        int i = Math.min(row, column);
+        int j = Math.max(row, column);
+        long key = (long) i * n + j;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & cacheMask;
+        Object lock = locks[slot & (NUMBER_OF_LOCKS - 1)];
+        synchronized (lock) {
+            if (cacheKeys[slot] == key) {
+                return cacheValues[slot];
+            }
+        }
+
+        // the columns are only read, so the product itself needs no lock
+        double value = dotProduct(columns[i], columns[j]);
+        synchronized (lock) {
+            cacheValues[slot] = value;
+            cacheKeys[slot] = key;
+        }
+        return value;
+    }
+
+    @Override
+    public boolean computesOnDemand() {
+        return true;
+    }
+
+    private double dotProduct(DoubleBuffer x, DoubleBuffer y) {
+        double sum = 0;
+        for (int row = 0; row < dataLength; row++) {
+            sum += x.get(row) * y.get(row);
+        }
+        return sum;
+    }
+}
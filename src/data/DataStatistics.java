@@ -0,0 +1,35 @@
+package data;
+
+import java.util.List;
+
+/**
+ * The statistics of the data the scoring works with: the number of rows, the means of the columns
+ * and the entries of the scatter matrix (sum of the outer products of the deviations from the mean).
+ * The scoring only ever looks at the rows and columns of one family at a time, so the
+ * implementations are free to compute the entries when they are asked for.
+ */
+public interface DataStatistics {
+    List<String> getNamesOfNodes();
+
+    /**
+     * @return the number of columns
+     */
+    int size();
+
+    /**
+     * @return the number of rows the statistics were computed from
+     */
+    int getDataLength();
+
+    double getMean(int index);
+
+    double getScatter(int row, int column);
+
+    /**
+     * @return true if the entries of the scatter matrix are computed when they are asked for,
+     * so they should not all be copied in advance
+     */
+    default boolean computesOnDemand() {
+        return false;
+    }
+}
@@ -0,0 +1,328 @@
+package data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a numeric csv file through a memory-mapped window, parsing the values straight from
+ * the mapped bytes into primitive arrays. No String is created for the data rows, apart from
+ * the rare numbers that need the exact (slow) conversion of Double.parseDouble.
+ */
+public class MappedCsvReader implements Closeable {
+    private static final long WINDOW_SIZE = 1 << 30;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final FileChannel channel;
+    private final long end;
+    private final List<String> namesOfNodes;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+    private int lineEnd;
+    private long lineNumber;
+
+    /**
+     * opens the file and reads its header
+     *
+     * @param fileName csv file, the first line being the header
+     */
+    public MappedCsvReader(String fileName) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        end = channel.size();
+        mapWindow(0);
+        if (!nextLine()) {
+            throw new IOException("The file " + fileName + " does not contain a header.");
+        }
+        byte[] header = new byte[lineEnd - position];
+        window.position(position);
+        window.get(header);
+        String headerLine = new String(header, StandardCharsets.UTF_8).trim();
+        namesOfNodes = Arrays.asList(headerLine.split(","));
+        skipLine();
+    }
+
+    /**
+     * opens a byte range of the file that contains data rows only, used for reading a file in chunks
+     *
+     * @param fileName     csv file
+     * @param namesOfNodes the header of the file
+     * @param start        offset of the first byte of the range, it has to be the start of a line
+     * @param end          offset after the last byte of the range
+     */
+    public MappedCsvReader(String fileName, List<String> namesOfNodes, long start, long end) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        this.end = Math.min(end, channel.size());
+        this.namesOfNodes = namesOfNodes;
+        mapWindow(start);
+    }
+
+    /**
+     * finds the start of the first line beginning at or after the given offset
+     *
+     * @param fileName csv file
+     * @param offset   offset in the file
+     * @return the offset of the start of the line, or the size of the file if there are no more lines
+     */
+    public static long findLineStart(String fileName, long offset) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            if (offset <= 0) {
+                return 0;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            // the byte before the offset decides whether the offset is already at the start of a line
+            long current = offset - 1;
+            while (current < size) {
+                buffer.clear();
+                int read = fileChannel.read(buffer, current);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (isLineBreak(buffer.get(i))) {
+                        return current + i + 1;
+                    }
+                }
+                current += read;
+            }
+            return size;
+        }
+    }
+
+    public List<String> getNamesOfNodes() {
+        return namesOfNodes;
+    }
+
+    /**
+     * @return offset of the first byte in the file that has not been read yet
+     */
+    public long getPosition() {
+        return windowStart + position;
+    }
+
+    /**
+     * counts the remaining data rows without parsing them
+     *
+     * @return the number of non-empty lines left
+     */
+    public long countRows() throws IOException {
+        long rows = 0;
+        while (nextLine()) {
+            skipLine();
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * parses the next data row
+     *
+     * @param values array to put the values of the row in, its length must be the number of columns
+     * @return false if there are no more rows
+     */
+    public boolean readRow(double[] values) throws IOException {
+        return readRow(values, 0, 1);
+    }
+
+    /**
+     * parses up to capacity rows into column-major buffers, the value in row r and column c
+     * ends up at columns[r + c * capacity]
+     *
+     * @param columns  buffer of at least capacity * number of columns elements
+     * @param capacity the maximum number of rows to read
+     * @return the number of rows read, 0 if there are no more rows
+     */
+    public int readColumns(double[] columns, int capacity) throws IOException {
+        return readColumns(columns, capacity, capacity);
+    }
+
+    /**
+     * parses up to maxRows rows into column-major buffers of the given capacity
+     *
+     * @param columns  buffer of at least capacity * number of columns elements
+     * @param capacity the leading dimension of the buffer
+     * @param maxRows  the maximum number of rows to read, at most capacity
+     * @return the number of rows read, 0 if there are no more rows
+     */
+    public int readColumns(double[] columns, int capacity, int maxRows) throws IOException {
+        int rows = 0;
+        while (rows < maxRows && readRow(columns, rows, capacity)) {
+            rows++;
+        }
+        return rows;
+    }
+
+    private boolean readRow(double[] values, int offset, int stride) throws IOException {
+        if (!nextLine()) {
+            return false;
+        }
+        int numberOfColumns = namesOfNodes.size();
+        for (int column = 0; column < numberOfColumns; column++) {
+            if (position >= lineEnd) {
+                throw new IOException("Line " + lineNumber + " contains fewer than " + numberOfColumns + " values.");
+            }
+            values[offset + column * stride] = parseValue();
+            // step over the separator
+            position++;
+        }
+        skipLine();
+        return true;
+    }
+
+    /**
+     * moves to the start of the next non-empty line and makes sure the whole line is inside the window
+     *
+     * @return false if the end of the file has been reached
+     */
+    private boolean nextLine() throws IOException {
+        while (true) {
+            while (position < window.limit() && isLineBreak(window.get(position))) {
+                position++;
+            }
+            if (position >= window.limit()) {
+                if (windowStart + position >= end) {
+                    return false;
+                }
+                mapWindow(windowStart + position);
+                continue;
+            }
+            lineEnd = position;
+            while (lineEnd < window.limit() && !isLineBreak(window.get(lineEnd))) {
+                lineEnd++;
+            }
+            if (lineEnd == window.limit() && windowStart + lineEnd < end) {
+                // the line continues after the window, map a new one starting with this line
+                if (position == 0) {
+                    throw new IOException("Line " + (lineNumber + 1) + " is longer than " + WINDOW_SIZE + " bytes.");
+                }
+                mapWindow(windowStart + position);
+                continue;
+            }
+            lineNumber++;
+            return true;
+        }
+    }
+
+    private void skipLine() {
+        position = lineEnd;
+    }
+
+    private void mapWindow(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(0, Math.min(WINDOW_SIZE, end - start)));
+        position = 0;
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * parses the number starting at the current position and leaves the position on the byte after it
+     * The usual decimal notation is converted exactly with the fast path of Clinger's algorithm,
+     * everything else is handed over to Double.parseDouble.
+     */
+    private double parseValue() {
+        int start = position;
+        int i = position;
+        boolean negative = false;
+        byte b = window.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        boolean exact = true;
+        for (; i < lineEnd; i++) {
+            b = window.get(i);
+            if (b >= '0' && b <= '9') {
+                anyDigits = true;
+                if (significantDigits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) {
+                        significantDigits++;
+                    }
+                } else {
+                    exact = false;
+                    exponent++;
+                }
+            } else {
+                break;
+            }
+        }
+        if (i < lineEnd && window.get(i) == '.') {
+            for (i++; i < lineEnd; i++) {
+                b = window.get(i);
+                if (b >= '0' && b <= '9') {
+                    anyDigits = true;
+                    if (significantDigits < 18) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        exponent--;
+                        if (mantissa != 0) {
+                            significantDigits++;
+                        }
+                    } else {
+                        exact = false;
+                    }
+                } else {
+                    break;
+                }
+            }
+        }
+        if (i < lineEnd && (window.get(i) == 'e' || window.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < lineEnd && (window.get(i) == '-' || window.get(i) == '+')) {
+                negativeExponent = window.get(i) == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            for (; i < lineEnd; i++) {
+                b = window.get(i);
+                if (b >= '0' && b <= '9') {
+                    if (explicitExponent < 100000) {
+                        explicitExponent = explicitExponent * 10 + (b - '0');
+                    }
+                } else {
+                    break;
+                }
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        while (i < lineEnd && window.get(i) != ',') {
+            // something this parser does not know about, e.g. NaN or surrounding whitespace
+            exact = false;
+            i++;
+        }
+        position = i;
+
+        if (exact && anyDigits && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        byte[] token = new byte[i - start];
+        for (int j = 0; j < token.length; j++) {
+            token[j] = window.get(start + j);
+        }
+        return Double.parseDouble(new String(token, StandardCharsets.US_ASCII).trim());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,227 @@
+package data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the statistics of a data file in a binary file next to it, so runs that only differ in
+ * the search parameters can skip reading the data. The cache file belongs to one data file and one
+ * row limit, and it is only used while the size and the modification time of the data file match
+ * the ones it was written with.
+ * In incremental mode a cache of an older, shorter version of the file is updated with the rows
+ * appended since, provided that the end of the rows it was built from has not changed.
+ * <p>
+ * Layout (big-endian): magic, version, size and modification time of the data file, row limit,
+ * offset after the last row used, checksum of the bytes before that offset, number of columns,
+ * the names of the columns, number of rows used, mean vector, scatter matrix (column-major).
+ */
+public class StatisticsCache {
+    private static final int MAGIC = 0x47424e53;
+    private static final int VERSION = 2;
+    private static final long SEGMENT_SIZE = 1 << 27;
+    private static final int FINGERPRINT_SIZE = 1 << 16;
+
+    /**
+     * loads the statistics from the cache file if it is up to date, otherwise reads the data file
+     * and writes the cache file for the next run
+     *
+     * @param dataFileName       csv file containing the data
+     * @param numberOfLinesToUse the first how many rows should be used
+     * @param incremental        if rows have been appended to the data file since the cache was written,
+     *                           only read the new rows and add them to the cached statistics
+     * @return the statistics of the data, or null if the data file could not be read
+     */
+    public static SufficientStatistics loadOrCompute(String dataFileName, int numberOfLinesToUse, boolean incremental) {
+        File dataFile = new File(dataFileName);
+        File cacheFile = getCacheFile(dataFileName, numberOfLinesToUse);
+        SufficientStatistics statistics = null;
+        if (cacheFile.exists()) {
+            try {
+                Entry entry = read(cacheFile, numberOfLinesToUse);
+                if (entry != null && entry.size == dataFile.length() && entry.lastModified == dataFile.lastModified()) {
+                    System.out.println("Statistics of the data loaded from " + cacheFile.getPath() + ".");
+                    return entry.statistics;
+                }
+                if (entry != null && incremental && entry.size <= dataFile.length()
+                        && entry.fingerprint == fingerprint(dataFile, entry.statistics.getDataEnd())) {
+                    statistics = update(dataFileName, entry.statistics, numberOfLinesToUse);
+                }
+            } catch (IOException e) {
+                System.out.println("The statistics cache " + cacheFile.getPath() + " could not be read: " + e.getMessage());
+            }
+        }
+
+        if (statistics == null) {
+            if (incremental) {
+                System.out.println("There are no statistics the new rows could be added to, reading the whole data file.");
+            }
+            statistics = SufficientStatistics.fromCSV(dataFileName, numberOfLinesToUse);
+        }
+        if (statistics != null) {
+            try {
+                write(cacheFile, dataFile, numberOfLinesToUse, statistics);
+            } catch (IOException e) {
+                System.out.println("The statistics cache " + cacheFile.getPath() + " could not be written: " + e.getMessage());
+            }
+        }
+        return statistics;
+    }
+
+    public static File getCacheFile(String dataFileName, int numberOfLinesToUse) {
+        return new File(dataFileName + "." + numberOfLinesToUse + ".stats");
+    }
+
+    /**
+     * adds the rows after the end of the cached ones to the statistics with a rank-k update
+     */
+    private static SufficientStatistics update(String dataFileName, SufficientStatistics statistics, int numberOfLinesToUse) throws IOException {
+        int remainingRows = numberOfLinesToUse - statistics.getDataLength();
+        if (remainingRows > 0) {
+            SufficientStatistics newRows = ChunkedStatisticsLoader.load(dataFileName, statistics.getNamesOfNodes(),
+                    statistics.getDataEnd(), remainingRows, ForkJoinPool.commonPool());
+            statistics.merge(newRows);
+            System.out.println(newRows.getDataLength() + " new rows added to the cached statistics of the data.");
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the cached statistics and the version of the data file they belong to, or null if the
+     * cache file was written by a different version of the program or with a different row limit
+     */
+    static Entry read(File cacheFile, int numberOfLinesToUse) throws IOException {
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), SEGMENT_SIZE));
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.size = header.getLong();
+            entry.lastModified = header.getLong();
+            if (header.getInt() != numberOfLinesToUse) {
+                return null;
+            }
+            long dataEnd = header.getLong();
+            entry.fingerprint = header.getLong();
+            int n = header.getInt();
+            List<String> namesOfNodes = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                byte[] name = new byte[header.getInt()];
+                header.get(name);
+                namesOfNodes.add(new String(name, StandardCharsets.UTF_8));
+            }
+            int dataLength = header.getInt();
+            long offset = header.position();
+
+            double[] mean = new double[n];
+            double[] scatter = new double[n * n];
+            offset = readDoubles(channel, offset, mean);
+            readDoubles(channel, offset, scatter);
+            entry.statistics = new SufficientStatistics(namesOfNodes, dataLength, mean, scatter);
+            entry.statistics.setDataEnd(dataEnd);
+            return entry;
+        }
+    }
+
+    static void write(File cacheFile, File dataFile, int numberOfLinesToUse, SufficientStatistics statistics) throws IOException {
+        // written to a temporary file first, so an interrupted run does not leave a broken cache behind;
+        // createFile gives it the usual permissions, a file of createTempFile could only be read by its owner
+        Path temporaryFile = Files.createFile(cacheFile.getAbsoluteFile().getParentFile().toPath()
+                .resolve(cacheFile.getName() + "." + UUID.randomUUID() + ".tmp"));
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+            List<byte[]> names = new ArrayList<>();
+            int headerSize = 4 * 4 + 4 * 8 + 4;
+            for (String name : statistics.getNamesOfNodes()) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                names.add(bytes);
+                headerSize += 4 + bytes.length;
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            header.putInt(MAGIC).putInt(VERSION)
+                    .putLong(dataFile.length()).putLong(dataFile.lastModified())
+                    .putInt(numberOfLinesToUse)
+                    .putLong(statistics.getDataEnd()).putLong(fingerprint(dataFile, statistics.getDataEnd()))
+                    .putInt(statistics.size());
+            for (byte[] name : names) {
+                header.putInt(name.length).put(name);
+            }
+            header.putInt(statistics.getDataLength());
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            writeDoubles(channel, statistics.getMeanData());
+            writeDoubles(channel, statistics.getScatterData());
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        Files.move(temporaryFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return checksum of the last (at most 64 KB) bytes before the given offset of the file
+     */
+    private static long fingerprint(File dataFile, long end) throws IOException {
+        try (FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+            long start = Math.max(0, end - FINGERPRINT_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate((int) (Math.min(end, channel.size()) - Math.min(start, end)));
+            while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) > 0) {
+                // keep reading until the buffer is full
+            }
+            CRC32 crc = new CRC32();
+            buffer.flip();
+            crc.update(buffer);
+            return crc.getValue();
+        }
+    }
+
+    private static long readDoubles(FileChannel channel, long offset, double[] values) throws IOException {
+        int done = 0;
+        while (done < values.length) {
+            int count = (int) Math.min(values.length - done, SEGMENT_SIZE / 8);
+            DoubleBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, offset, count * 8L).asDoubleBuffer();
+            segment.get(values, done, count);
+            done += count;
+            offset += count * 8L;
+        }
+        return offset;
+    }
+
+    private static void writeDoubles(FileChannel channel, double[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        DoubleBuffer doubles = buffer.asDoubleBuffer();
+        int done = 0;
+        while (done < values.length) {
+            int count = Math.min(values.length - done, doubles.capacity());
+            doubles.clear();
+            doubles.put(values, done, count);
+            buffer.clear().limit(count * 8);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            done += count;
+        }
+    }
+
+    static class Entry {
+        SufficientStatistics statistics;
+        long size;
+        long lastModified;
+        long fingerprint;
+    }
+}
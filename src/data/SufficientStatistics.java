@@ -0,0 +1,247 @@
+package data;
+
+import org.jblas.DoubleMatrix;
+import org.jblas.NativeBlas;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds everything the scoring needs from the data file: the names of the columns,
+ * the number of rows used, the mean vector and the scatter matrix (sum of the outer
+ * products of the deviations from the mean).
+ * The values are maintained with an online (Welford) update, one row or one block of rows
+ * at a time, so the data has to be read only once.
+ */
+public class SufficientStatistics implements DataStatistics {
+    private final List<String> namesOfNodes;
+    private final int n;
+    private int dataLength;
+    // offset in the data file after the last row used
+    private long dataEnd;
+    private final double[] mean;
+    // column-major n x n matrix, the same layout DoubleMatrix uses
+    private final double[] scatter;
+    private final double[] deviation;
+    private final double[] blockMean;
+
+    public SufficientStatistics(List<String> namesOfNodes) {
+        this(namesOfNodes, 0, new double[namesOfNodes.size()], new double[namesOfNodes.size() * namesOfNodes.size()]);
+    }
+
+    SufficientStatistics(List<String> namesOfNodes, int dataLength, double[] mean, double[] scatter) {
+        this.namesOfNodes = namesOfNodes;
+        n = namesOfNodes.size();
+        this.dataLength = dataLength;
+        this.mean = mean;
+        this.scatter = scatter;
+        deviation = new double[n];
+        blockMean = new double[n];
+    }
+
+    /**
+     * reads the header and the first numberOfLinesToUse rows of the csv file in one pass,
+     * the chunks of the file being processed in parallel
+     *
+     * @param fileName           csv file containing the data, the first line being the header
+     * @param numberOfLinesToUse the first how many rows should be used
+     * @return the statistics of the data, or null if the file could not be read
+     */
+    public static SufficientStatistics fromCSV(String fileName, int numberOfLinesToUse) {
+        try {
+            return ChunkedStatisticsLoader.load(fileName, numberOfLinesToUse, ForkJoinPool.commonPool());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * adds one row of data to the statistics
+     *
+     * @param values the values of the row, in the order of the columns
+     */
+    public void addRow(double[] values) {
+        dataLength++;
+        for (int i = 0; i < n; i++) {
+            deviation[i] = values[i] - mean[i];
+            mean[i] += deviation[i] / dataLength;
+        }
+        // (x - oldMean) * (x - newMean)^T = (x - oldMean) * (x - oldMean)^T * (k - 1) / k
+        double weight = (dataLength - 1) / (double) dataLength;
+        for (int col = 0; col < n; col++) {
+            double scaled = deviation[col] * weight;
+            int offset = col * n;
+            for (int row = 0; row < n; row++) {
+                scatter[offset + row] += deviation[row] * scaled;
+            }
+        }
+    }
+
+    /**
+     * removes one row that was added before from the statistics (rank-one downdate)
+     *
+     * @param values the values of the row, in the order of the columns
+     */
+    public void removeRow(double[] values) {
+        if (dataLength <= 1) {
+            dataLength = 0;
+            Arrays.fill(mean, 0);
+            Arrays.fill(scatter, 0);
+            return;
+        }
+        dataLength--;
+        for (int i = 0; i < n; i++) {
+            deviation[i] = values[i] - mean[i];
+            mean[i] -= deviation[i] / dataLength;
+        }
+        // (x - newMean) * (x - oldMean)^T = (x - oldMean) * (x - oldMean)^T * (k + 1) / k
+        double weight = (dataLength + 1) / (double) dataLength;
+        for (int col = 0; col < n; col++) {
+            double scaled = deviation[col] * weight;
+            int offset = col * n;
+            for (int row = 0; row < n; row++) {
+                scatter[offset + row] -= deviation[row] * scaled;
+            }
+        }
+    }
+
+    /**
+     * @return an independent copy of the statistics
+     */
+    public SufficientStatistics copy() {
+        SufficientStatistics copy = new SufficientStatistics(namesOfNodes, dataLength, mean.clone(), scatter.clone());
+        copy.dataEnd = dataEnd;
+        return copy;
+    }
+
+    /**
+     * adds a block of rows to the statistics with a single rank-k update of the scatter matrix:
+     * the block is centred on its own mean, multiplied with its transpose by BLAS (gemm) straight
+     * into the scatter matrix, then combined with the rows seen so far like in {@link #merge}
+     *
+     * @param block    column-major buffer, the value in row r and column c is at block[r + c * capacity],
+     *                 it is overwritten with the centred values
+     * @param rows     the number of rows in the block
+     * @param capacity the leading dimension of the buffer
+     */
+    public void addBlock(double[] block, int rows, int capacity) {
+        if (rows == 0) {
+            return;
+        }
+        for (int col = 0; col < n; col++) {
+            int offset = col * capacity;
+            double sum = 0;
+            for (int row = 0; row < rows; row++) {
+                sum += block[offset + row];
+            }
+            blockMean[col] = sum / rows;
+            for (int row = 0; row < rows; row++) {
+                block[offset + row] -= blockMean[col];
+            }
+        }
+        NativeBlas.dgemm('T', 'N', n, n, rows, 1.0, block, 0, capacity, block, 0, capacity, 1.0, scatter, 0, n);
+        combineMeans(blockMean, rows);
+    }
+
+    /**
+     * adds the rows another statistics object was built from, using the pairwise combination
+     * of Chan et al.: the scatter matrices are summed and corrected with the outer product of
+     * the difference of the means
+     *
+     * @param other statistics of the same columns, computed from different rows
+     */
+    public void merge(SufficientStatistics other) {
+        if (other.dataLength == 0) {
+            return;
+        }
+        dataEnd = Math.max(dataEnd, other.dataEnd);
+        for (int i = 0; i < scatter.length; i++) {
+            scatter[i] += other.scatter[i];
+        }
+        combineMeans(other.mean, other.dataLength);
+    }
+
+    /**
+     * updates the mean and adds the correction term of the pairwise combination to the scatter matrix,
+     * the scatter matrix of the other rows has to be added already
+     */
+    private void combineMeans(double[] otherMean, int otherLength) {
+        int total = dataLength + otherLength;
+        double weight = (double) dataLength * otherLength / total;
+        for (int i = 0; i < n; i++) {
+            deviation[i] = otherMean[i] - mean[i];
+        }
+        for (int col = 0; col < n; col++) {
+            double scaled = deviation[col] * weight;
+            int offset = col * n;
+            for (int row = 0; row < n; row++) {
+                scatter[offset + row] += deviation[row] * scaled;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            mean[i] += deviation[i] * otherLength / total;
+        }
+        dataLength = total;
+    }
+
+    @Override
+    public List<String> getNamesOfNodes() {
+        return namesOfNodes;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    @Override
+    public double getMean(int index) {
+        return mean[index];
+    }
+
+    @Override
+    public double getScatter(int row, int column) {
+        return scatter[row + column * n];
+    }
+
+    /**
+     * @return the offset in the data file after the last row the statistics contain
+     */
+    public long getDataEnd() {
+        return dataEnd;
+    }
+
+    void setDataEnd(long dataEnd) {
+        this.dataEnd = dataEnd;
+    }
+
+    double[] getMeanData() {
+        return mean;
+    }
+
+    double[] getScatterData() {
+        return scatter;
+    }
+
+    /**
+     * @return the mean of the columns as an n x 1 matrix
+     */
+    public DoubleMatrix getMean() {
+        return new DoubleMatrix(mean.clone());
+    }
+
+    /**
+     * @return the scatter matrix of the data as an n x n matrix
+     */
+    public DoubleMatrix getScatter() {
+        return new DoubleMatrix(n, n, scatter.clone());
+    }
+}
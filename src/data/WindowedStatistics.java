@@ -0,0 +1,78 @@
+package data;
+
+import java.util.List;
+
+/**
+ * Keeps the statistics of the last windowSize rows of a data stream: every new row is added to the
+ * mean and the scatter matrix, and when the window is full the oldest row is removed with a
+ * rank-one downdate. The rows of the window are buffered, and the statistics are recomputed from
+ * them once per window length, so the rounding errors of the downdates do not pile up.
+ */
+public class WindowedStatistics {
+    private final List<String> namesOfNodes;
+    private final int windowSize;
+    private final int n;
+    // ring buffer, the row in slot i is at [i * n, (i + 1) * n)
+    private final double[] rows;
+    private final double[] oldestRow;
+    private int first;
+    private int count;
+    private int removalsSinceRecompute;
+    private SufficientStatistics statistics;
+
+    public WindowedStatistics(List<String> namesOfNodes, int windowSize) {
+        this.namesOfNodes = namesOfNodes;
+        this.windowSize = windowSize;
+        n = namesOfNodes.size();
+        rows = new double[windowSize * n];
+        oldestRow = new double[n];
+        statistics = new SufficientStatistics(namesOfNodes);
+    }
+
+    /**
+     * adds a row to the window, removing the oldest one if the window is full
+     *
+     * @param values the values of the row, in the order of the columns
+     */
+    public void addRow(double[] values) {
+        if (count == windowSize) {
+            System.arraycopy(rows, first * n, oldestRow, 0, n);
+            statistics.removeRow(oldestRow);
+            first = (first + 1) % windowSize;
+            count--;
+            removalsSinceRecompute++;
+        }
+        System.arraycopy(values, 0, rows, ((first + count) % windowSize) * n, n);
+        count++;
+        statistics.addRow(values);
+
+        if (removalsSinceRecompute >= windowSize) {
+            recompute();
+        }
+    }
+
+    private void recompute() {
+        statistics = new SufficientStatistics(namesOfNodes);
+        double[] row = new double[n];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(rows, ((first + i) % windowSize) * n, row, 0, n);
+            statistics.addRow(row);
+        }
+        removalsSinceRecompute = 0;
+    }
+
+    public boolean isFull() {
+        return count == windowSize;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @return a copy of the statistics of the current window, it is not changed by later rows
+     */
+    public SufficientStatistics snapshot() {
+        return statistics.copy();
+    }
+}
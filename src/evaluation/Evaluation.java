@@ -157,11 +157,11 @@ public class Evaluation {
                     if (parent == otherParent) {
                         continue;
                     }
-                    Edge e1 = GraphFunctions.getEdge(network.getEdges(), parent, child);
-                    Edge e2 = GraphFunctions.getEdge(network.getEdges(), otherParent, child);
-                    Edge parentEdge = GraphFunctions.getEdge(network.getEdges(), parent, otherParent);
+                    Edge e1 = network.getEdge(parent, child);
+                    Edge e2 = network.getEdge(otherParent, child);
+                    Edge parentEdge = network.getEdge(parent, otherParent);
                     if (parentEdge == null)
-                        parentEdge = GraphFunctions.getEdge(network.getEdges(), otherParent, parent);
+                        parentEdge = network.getEdge(otherParent, parent);
                     if (parentEdge == null) {
                         // there is no edge in any direction
                         e1.setDirected(true);
@@ -178,7 +178,7 @@ public class Evaluation {
                 if (!edgeExamined.isDirected()) {
                     Edge parentEdge;
                     for (Node parent : edgeExamined.getParent().getParents()) {
-                        parentEdge = GraphFunctions.getEdge(network.getEdges(), parent, edgeExamined.getParent());
+                        parentEdge = network.getEdge(parent, edgeExamined.getParent());
                         if (parentEdge != null && parentEdge.isDirected()) {
                             edgeExamined.setDirected(true);
                             changed = true;
@@ -0,0 +1,115 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Finds the edge of a network from the indexes of its parent and its child, in an open-addressing
+ * hash table keyed by both indexes packed into a long.
+ */
+final class EdgeIndex {
+    private static final long EMPTY = -1;
+
+    private long[] keys = new long[16];
+    private Edge[] edges = new Edge[16];
+    private int mask = 15;
+    private int size;
+
+    EdgeIndex() {
+        Arrays.fill(keys, EMPTY);
+    }
+
+    Edge get(int parent, int child) {
+        long key = getKey(parent, child);
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return edges[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * puts the edge into the index, replacing the edge between the same nodes if there is one
+     */
+    void put(Edge edge) {
+        if (2 * (size + 1) > keys.length) {
+            grow();
+        }
+        long key = getKey(edge.getParent().getIndex(), edge.getChild().getIndex());
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                edges[slot] = edge;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        edges[slot] = edge;
+        size++;
+    }
+
+    /**
+     * removes the edge from the parent to the child, and moves the keys after it back, so no key is
+     * behind an empty slot of its probe
+     *
+     * @return the edge removed, null if there was none
+     */
+    Edge remove(int parent, int child) {
+        long key = getKey(parent, child);
+        int gap = slot(key);
+        while (keys[gap] != key) {
+            if (keys[gap] == EMPTY) {
+                return null;
+            }
+            gap = (gap + 1) & mask;
+        }
+        Edge removed = edges[gap];
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                edges[gap] = edges[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        edges[gap] = null;
+        size--;
+        return removed;
+    }
+
+    private static long getKey(int parent, int child) {
+        return ((long) parent << 32) | (child & 0xFFFFFFFFL);
+    }
+
+    private int slot(long key) {
+        // finalizer of SplitMix64
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (key ^ (key >>> 31)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Edge[] oldEdges = edges;
+        keys = new long[2 * oldKeys.length];
+        edges = new Edge[2 * oldKeys.length];
+        mask = keys.length - 1;
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                edges[slot] = oldEdges[i];
+            }
+        }
+    }
+}
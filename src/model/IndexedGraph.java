@@ -0,0 +1,158 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * The structure of a network over the indexes of its nodes: the parents and the children of every
+ * node are kept in sorted int arrays, so an edge is found with a binary search and the neighbours
+ * of a node are walked without touching any Node or Edge object.
+ */
+final class IndexedGraph {
+    private static final int[] NO_NODES = new int[0];
+
+    private int size;
+    private int numberOfEdges;
+    // sorted, only the first numberOfParents[i] / numberOfChildren[i] entries are used
+    private int[][] parents = new int[16][];
+    private int[][] children = new int[16][];
+    private int[] numberOfParents = new int[16];
+    private int[] numberOfChildren = new int[16];
+
+    /**
+     * @return the index of the new node
+     */
+    int addNode() {
+        if (size == parents.length) {
+            int capacity = size * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            children = Arrays.copyOf(children, capacity);
+            numberOfParents = Arrays.copyOf(numberOfParents, capacity);
+            numberOfChildren = Arrays.copyOf(numberOfChildren, capacity);
+        }
+        parents[size] = NO_NODES;
+        children[size] = NO_NODES;
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getNumberOfEdges() {
+        return numberOfEdges;
+    }
+
+    boolean hasEdge(int parent, int child) {
+        // search the shorter of the two lists
+        if (numberOfParents[child] <= numberOfChildren[parent]) {
+            return Arrays.binarySearch(parents[child], 0, numberOfParents[child], parent) >= 0;
+        }
+        return Arrays.binarySearch(children[parent], 0, numberOfChildren[parent], child) >= 0;
+    }
+
+    /**
+     * @return false if the edge was already in the graph
+     */
+    boolean addEdge(int parent, int child) {
+        if (!insert(parents, numberOfParents, child, parent)) {
+            return false;
+        }
+        insert(children, numberOfChildren, parent, child);
+        numberOfEdges++;
+        return true;
+    }
+
+    /**
+     * @return false if the edge was not in the graph
+     */
+    boolean removeEdge(int parent, int child) {
+        if (!remove(parents, numberOfParents, child, parent)) {
+            return false;
+        }
+        remove(children, numberOfChildren, parent, child);
+        numberOfEdges--;
+        return true;
+    }
+
+    int getNumberOfParents(int node) {
+        return numberOfParents[node];
+    }
+
+    /**
+     * @return the k-th smallest index among the parents of the node
+     */
+    int getParent(int node, int k) {
+        return parents[node][k];
+    }
+
+    int getNumberOfChildren(int node) {
+        return numberOfChildren[node];
+    }
+
+    /**
+     * @return the k-th smallest index among the children of the node
+     */
+    int getChild(int node, int k) {
+        return children[node][k];
+    }
+
+    /**
+     * @param node     the node the search starts from, it is not part of the result unless it is on a cycle
+     * @param upwards  true to follow the edges backwards, collecting the ancestors instead of the descendants
+     * @param reached  the indexes of the nodes reached are put here
+     * @return the number of nodes reached
+     */
+    int collectReachable(int node, boolean upwards, int[] reached) {
+        int[][] next = upwards ? parents : children;
+        int[] numberOfNext = upwards ? numberOfParents : numberOfChildren;
+        PathSearch search = PathSearch.get();
+        int mark = search.start(size);
+        int[] stack = search.stack;
+        int[] visited = search.visited;
+        int count = 0;
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            int current = stack[--top];
+            for (int k = 0; k < numberOfNext[current]; k++) {
+                int other = next[current][k];
+                if (visited[other] != mark) {
+                    visited[other] = mark;
+                    reached[count++] = other;
+                    stack[top++] = other;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean insert(int[][] lists, int[] counts, int node, int value) {
+        int count = counts[node];
+        int[] list = lists[node];
+        int position = Arrays.binarySearch(list, 0, count, value);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        if (count == list.length) {
+            list = Arrays.copyOf(list, Math.max(4, count * 2));
+            lists[node] = list;
+        }
+        System.arraycopy(list, position, list, position + 1, count - position);
+        list[position] = value;
+        counts[node] = count + 1;
+        return true;
+    }
+
+    private static boolean remove(int[][] lists, int[] counts, int node, int value) {
+        int count = counts[node];
+        int[] list = lists[node];
+        int position = Arrays.binarySearch(list, 0, count, value);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(list, position + 1, list, position, count - position - 1);
+        counts[node] = count - 1;
+        return true;
+    }
+}
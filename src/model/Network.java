@@ -9,16 +9,26 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 
-import static utils.GraphFunctions.*;
 import static utils.NameGenerator.generateRandomName;
 
 /**
  * Created by Benedek on 3/17/2016.
  */
 public class Network {
+    // the closure takes two bits for every pair of nodes, above this it is not kept and the cycle
+    // checks search the graph along the topological order
+    private static final int MAXIMUM_SIZE_OF_REACHABILITY = 8192;
     private final String id;
     private Set<Node> nodes;
     private Set<Edge> edges;
+    // the structure of the network over the indexes of the nodes, the parents and children of the nodes are views of it
+    private final IndexedGraph graph = new IndexedGraph();
+    private final EdgeIndex edgeIndex = new EdgeIndex();
+    // which nodes can be reached from which, kept up to date with the graph, null for large networks
+    private Reachability reachability = new Reachability(graph);
+    private final TopologicalOrder topologicalOrder = new TopologicalOrder(graph);
+    private final List<Node> nodesByIndex = new ArrayList<>();
+    private final Map<String, Node> nodesByName = new HashMap<>();
 
     public Network() {
         id = UUID.randomUUID().toString();
@@ -26,12 +36,6 @@ public class Network {
         edges = new TreeSet<>();
     }
 
-    public Network(Set<Node> nodes) {
-        id = UUID.randomUUID().toString();
-        this.nodes = nodes;
-        this.edges = new TreeSet<>();
-    }
-
     public Network(String fileName) {
         id = UUID.randomUUID().toString();
         nodes = new TreeSet<>();
@@ -60,23 +64,46 @@ public class Network {
         }
     }
 
+    /**
+     * adds the node to the network, giving it the next index if it is not in the network yet
+     *
+     * @param n1 the node to be added
+     */
     public void addNode(Node n1) {
-        nodes.add(n1);
+        if (!nodesByName.containsKey(n1.getName())) {
+            indexNode(n1);
+            nodes.add(n1);
+        }
+    }
+
+    private void indexNode(Node node) {
+        node.setIndex(graph.addNode());
+        topologicalOrder.addNode();
+        if (reachability != null) {
+            if (graph.size() > MAXIMUM_SIZE_OF_REACHABILITY) {
+                reachability = null;
+            } else {
+                reachability.addNode();
+            }
+        }
+        nodesByIndex.add(node);
+        nodesByName.put(node.getName(), node);
     }
 
     public void addNewEdge(String parentName, String childName, Double strength) {
-        if (!containsNodeWithName(nodes, parentName)) {
+        Node parent = getNode(parentName);
+        Node child = getNode(childName);
+        if (parent == null) {
             throw new IllegalArgumentException("Parent does not exist with the name " + parentName + " when trying to add new edges");
-        } else if (!containsNodeWithName(nodes, childName)) {
+        } else if (child == null) {
             throw new IllegalArgumentException("Child does not exist with the name " + childName + " when trying to add new edges");
         }
 
-        Node parent = getNodeWithName(getNodes(), parentName);
-        Node child = getNodeWithName(getNodes(), childName);
-        if (!containsEdge(edges, parent, child)) {
-            edges.add(new Edge(this, parent, child, strength));
-            parent.addNewChild(child);
-            child.addNewParent(parent);
+        if (graph.addEdge(parent.getIndex(), child.getIndex())) {
+            edgeAdded(parent.getIndex(), child.getIndex());
+            Edge edge = new Edge(this, parent, child, strength);
+            edges.add(edge);
+            edgeIndex.put(edge);
         }
     }
 
@@ -84,6 +111,71 @@ public class Network {
         return nodes;
     }
 
+    /**
+     * @return the node with the given name, null if there is no such node in the network
+     */
+    public Node getNode(String name) {
+        return nodesByName.get(name);
+    }
+
+    /**
+     * @return the node with the given index
+     */
+    public Node getNode(int index) {
+        return nodesByIndex.get(index);
+    }
+
+    public boolean containsNode(String name) {
+        return nodesByName.containsKey(name);
+    }
+
+    /**
+     * @return true if there is an edge from the parent to the child
+     */
+    public boolean containsEdge(Node parent, Node child) {
+        return getEdge(parent, child) != null;
+    }
+
+    /**
+     * @return the edge from the parent to the child, null if there is no such edge
+     */
+    public Edge getEdge(Node parent, Node child) {
+        if (parent.getIndex() < 0 || child.getIndex() < 0) {
+            return null;
+        }
+        return edgeIndex.get(parent.getIndex(), child.getIndex());
+    }
+
+    IndexedGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @param upwards true for the ancestors of the node, false for its descendants
+     * @return the indexes of the nodes
+     */
+    int[] getReachable(int index, boolean upwards) {
+        if (reachability != null) {
+            return reachability.getReachable(index, upwards);
+        }
+        int[] reached = new int[graph.size()];
+        return Arrays.copyOf(reached, graph.collectReachable(index, upwards, reached));
+    }
+
+    private void edgeAdded(int parent, int child) {
+        topologicalOrder.edgeAdded(parent, child);
+        if (reachability != null) {
+            reachability.edgeAdded(parent, child);
+        }
+    }
+
+    private void edgeRemoved(int parent, int child) {
+        topologicalOrder.edgeRemoved(parent, child);
+        if (reachability != null) {
+            reachability.edgeRemoved(parent, child);
+        }
+    }
+
     public void printNetwork() {
         System.out.println("NETWORK CONTAINS " + nodes.size() + " NODES AND " + edges.size() + " EDGES");
         if (isDAG()) {
@@ -106,42 +198,7 @@ public class Network {
     }
 
     public boolean isDAG() {
-        // set that contains all the vertices at first
-        Set<String> start = new TreeSet<>(this.getNames());
-        // will contain one of the topological orders if exists such a thing
-        List<Node> result = new ArrayList<>();
-        // the next potential nodes to be considered
-        Set<Node> next = new TreeSet<>();
-
-        // move the root vertices from the start set to the next set
-        Iterator<String> iter = start.iterator();
-        while (iter.hasNext()) {
-            Node n = getNodeWithName(nodes, iter.next());
-            if (n != null) {
-                if (n.getParents() == null || n.getParents().size() == 0) {
-                    next.add(n);
-                }
-            }
-        }
-
-        while (next.size() > 0) {
-            Node current = next.iterator().next();
-            Set<Node> potentialNext = current.getChildren();
-            next.remove(current);
-            result.add(current);
-
-            for (Node n : potentialNext) {
-                if (!next.contains(n) && result.containsAll(n.getParents())) {
-                    next.add(n);
-                }
-            }
-        }
-
-        if (getNodes().size() == result.size()) {
-            return true;
-        } else {
-            return false;
-        }
+        return topologicalOrder.isAcyclic();
     }
 
     public List<String> getNames() {
@@ -154,19 +211,7 @@ public class Network {
     }
 
     public void addNewEdge(String parentName, String childName) {
-        if (!containsNodeWithName(nodes, parentName)) {
-            throw new IllegalArgumentException("Parent does not exist with the name " + parentName + " when trying to add new edges");
-        } else if (!containsNodeWithName(nodes, childName)) {
-            throw new IllegalArgumentException("Child does not exist with the name " + childName + " when trying to add new edges");
-        }
-
-        Node parent = getNodeWithName(getNodes(), parentName);
-        Node child = getNodeWithName(getNodes(), childName);
-        if (!containsEdge(edges, parent, child)) {
-            edges.add(new Edge(this, parent, child));
-            parent.addNewChild(child);
-            child.addNewParent(parent);
-        }
+        addNewEdge(parentName, childName, 0.0);
     }
 
     public void reverseEdge(Node parent, Node child) {
@@ -174,17 +219,17 @@ public class Network {
     }
 
     public void reverseEdge(String parentName, String childName) {
-        if (!containsNodeWithName(nodes, parentName)) {
+        Node parent = getNode(parentName);
+        Node child = getNode(childName);
+        if (parent == null) {
             throw new IllegalArgumentException("Parent does not exist with the name " + parentName + " when trying to delete the edge.");
-        } else if (!containsNodeWithName(nodes, childName)) {
+        } else if (child == null) {
             throw new IllegalArgumentException("Child does not exist with the name " + childName + " when trying to delete the edge.");
         }
 
-        Node parent = getNodeWithName(getNodes(), parentName);
-        Node child = getNodeWithName(getNodes(), childName);
-        if (containsEdge(edges, parent, child)) {
+        if (containsEdge(parent, child)) {
             // do nothing
-        } else if (containsEdge(edges, child, parent)) {
+        } else if (containsEdge(child, parent)) {
             // the edge is pointing from the child to the parent -> switch the names of the nodes
             Node temp = parent;
             parent = child;
@@ -194,16 +239,19 @@ public class Network {
             throw new IllegalArgumentException("There was no edge to reverse!");
         }
 
-        Edge e = getEdge(getEdges(), parent, child);
+        Edge e = edgeIndex.remove(parent.getIndex(), child.getIndex());
         Double strength = e.getStrength();
 
         edges.remove(e);
-        parent.removeChild(child);
-        child.removeParent(parent);
-
-        edges.add(new Edge(this, child, parent, strength));
-        child.addNewChild(parent);
-        parent.addNewParent(child);
+        graph.removeEdge(parent.getIndex(), child.getIndex());
+        edgeRemoved(parent.getIndex(), child.getIndex());
+
+        if (graph.addEdge(child.getIndex(), parent.getIndex())) {
+            edgeAdded(child.getIndex(), parent.getIndex());
+            Edge reversed = new Edge(this, child, parent, strength);
+            edges.add(reversed);
+            edgeIndex.put(reversed);
+        }
     }
 
     public Set<Edge> getEdges() {
@@ -222,33 +270,16 @@ public class Network {
         if (nodes.size() == 0) {
             addRandomNode();
         }
-        int item = new Random().nextInt(nodes.size());
-        int i = 0;
-        for (Node node : nodes) {
-            if (i == item)
-                return node;
-            i = i + 1;
-        }
-        // will never get here
-        return null;
+        return nodesByIndex.get(new Random().nextInt(nodesByIndex.size()));
     }
 
     public void addNewEdge(Node parent, Node child) {
-        if (!containsNodeWithName(nodes, parent.getName())) {
-            throw new IllegalArgumentException("Parent does not exist with the name " + parent.getName() + " when trying to add new edges");
-        } else if (!containsNodeWithName(nodes, child.getName())) {
-            throw new IllegalArgumentException("Child does not exist with the name " + child.getName() + " when trying to add new edges");
-        }
-        if (!containsEdge(edges, parent, child)) {
-            edges.add(new Edge(this, parent, child));
-            parent.addNewChild(child);
-            child.addNewParent(parent);
-        }
+        addNewEdge(parent.getName(), child.getName(), 0.0);
     }
 
     public void addRandomNode() {
         Node temp = new Node(generateRandomName(this), this);
-        nodes.add(temp);
+        addNode(temp);
     }
 
     public void saveNetworkToFile(String fileName) {
@@ -269,20 +300,33 @@ public class Network {
         }
     }
 
+    /**
+     * determines whether reversing the edge between the nodes would mess up the DAG property, without
+     * changing the network
+     *
+     * @return true if the start of the edge reaches its end on another path as well
+     */
     public boolean reversingViolatesDAG(Node parent, Node child) {
-        boolean violates;
-        if (containsEdge(edges, parent, child)) {
-            deleteEdge(parent, child);
-            violates = violatesDAG(child, parent);
-            addNewEdge(parent, child);
-        } else if (containsEdge(edges, child, parent)) {
-            deleteEdge(child, parent);
-            violates = violatesDAG(parent, child);
-            addNewEdge(child, parent);
-        } else {
+        if (containsEdge(parent, child)) {
+            return hasPathBesidesEdge(parent.getIndex(), child.getIndex());
+        } else if (containsEdge(child, parent)) {
+            return hasPathBesidesEdge(child.getIndex(), parent.getIndex());
+        }
+        return false;
+    }
+
+    private boolean hasPathBesidesEdge(int from, int to) {
+        if (reachability != null && topologicalOrder.isAcyclic()) {
+            // without a cycle no path from another child can come back through the edge
+            for (int k = 0; k < graph.getNumberOfChildren(from); k++) {
+                int other = graph.getChild(from, k);
+                if (other != to && reachability.isReachable(other, to)) {
+                    return true;
+                }
+            }
             return false;
         }
-        return violates;
+        return topologicalOrder.hasPathBesidesEdge(from, to);
     }
 
     public void deleteEdge(Node parent, Node child) {
@@ -301,32 +345,29 @@ public class Network {
     }
 
     public void deleteEdge(String parentName, String childName) {
-        if (!containsNodeWithName(nodes, parentName)) {
+        Node parent = getNode(parentName);
+        Node child = getNode(childName);
+        if (parent == null) {
             throw new IllegalArgumentException("Parent does not exist with the name " + parentName + " when trying to delete the edge.");
-        } else if (!containsNodeWithName(nodes, childName)) {
+        } else if (child == null) {
             throw new IllegalArgumentException("Child does not exist with the name " + childName + " when trying to delete the edge.");
         }
 
-        Node parent = getNodeWithName(getNodes(), parentName);
-        Node child = getNodeWithName(getNodes(), childName);
-        if (containsEdge(edges, parent, child)) {
-            edges.remove(getEdge(getEdges(), parent, child));
-            parent.removeChild(child);
-            child.removeParent(parent);
+        if (graph.removeEdge(parent.getIndex(), child.getIndex())) {
+            edgeRemoved(parent.getIndex(), child.getIndex());
+            edges.remove(edgeIndex.remove(parent.getIndex(), child.getIndex()));
         }
     }
 
     private boolean hasPath(Node from, Node to) {
-        for (Node n : from.getDescendants()) {
-            if (Objects.equals(n.getName(), to.getName())) {
-                return true;
-            }
+        if (reachability != null) {
+            return reachability.isReachable(from.getIndex(), to.getIndex());
         }
-        return false;
+        return topologicalOrder.hasPath(from.getIndex(), to.getIndex());
     }
 
     public int size() {
-        return getNodes().size();
+        return nodesByIndex.size();
     }
 
     @Override
@@ -1,93 +1,76 @@
 package model;
 
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 
-import static utils.GraphFunctions.containsNodeWithName;
-import static utils.GraphFunctions.getNodeWithName;
-
 /**
  * Created by Benedek on 3/17/2016.
  */
 public class Node implements Comparable {
     private final String name;
-    private Set<Node> parents;
-    private Set<Node> children;
+    private final Set<Node> parents;
+    private final Set<Node> children;
     private Network network;
-
+    // position of the node in the network, assigned when it is added
+    private int index = -1;
 
     public Node(String s, Network network) {
         name = s;
         this.network = network;
-        parents = new TreeSet<>();
-        children = new TreeSet<>();
+        parents = new Neighbours(true);
+        children = new Neighbours(false);
     }
 
     public String getName() {
         return name;
     }
 
+    public int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    public Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * @return the children of the node, a read-only view of the network ordered by the indexes of the nodes
+     */
     public Set<Node> getChildren() {
         return children;
     }
 
+    /**
+     * @return the parents of the node, a read-only view of the network ordered by the indexes of the nodes
+     */
     public Set<Node> getParents() {
         return parents;
     }
 
     public Set<Node> getAncestors() {
-        Set<Node> ancestors = getParents();
-        ancestors = getAllAncestors(ancestors);
-        return ancestors;
-    }
-
-    private Set<Node> getAllAncestors(Set<Node> currentAncestors) {
-        Set<Node> newAncestors = new TreeSet<>(currentAncestors);
-        for (Node n : currentAncestors) {
-            boolean anyNewNodes = false;
-            for (Node parent : n.getParents()) {
-                if (!containsNodeWithName(newAncestors, parent.getName())) {
-                    newAncestors.add(parent);
-                    anyNewNodes = true;
-                }
-            }
-            if (anyNewNodes) {
-                newAncestors = getAllAncestors(newAncestors);
-            }
-        }
-        return newAncestors;
+        return getReachable(true);
     }
 
-
     public Set<Node> getDescendants() {
-        Set<Node> descendants = getChildren();
-        descendants = getAllDescendants(descendants);
-        return descendants;
+        return getReachable(false);
     }
 
-    private Set<Node> getAllDescendants(Set<Node> currentDescendants) {
-        Set<Node> newDescendants = new TreeSet<>(currentDescendants);
-        for (Node n : currentDescendants) {
-            boolean anyNewNodes = false;
-            for (Node child : n.getChildren()) {
-                if (!containsNodeWithName(newDescendants, child.getName())) {
-                    newDescendants.add(child);
-                    anyNewNodes = true;
-                }
-            }
-            if (anyNewNodes){
-                newDescendants = getAllDescendants(newDescendants);
-            }
+    private Set<Node> getReachable(boolean upwards) {
+        Set<Node> reachable = new TreeSet<>();
+        if (index < 0) {
+            return reachable;
         }
-        return newDescendants;
-    }
-
-    public void addNewChild(Node n) {
-        children.add(n);
-    }
-
-    public void addNewParent(Node n) {
-        parents.add(n);
+        for (int other : network.getReachable(index, upwards)) {
+            reachable.add(network.getNode(other));
+        }
+        return reachable;
     }
 
 //    @Override
@@ -154,16 +137,64 @@ public class Node implements Comparable {
         return getName().compareTo(n.getName());
     }
 
-    public void removeParent(Node parent) {
-        parents.remove(getNodeWithName(parents, parent.getName()));
-    }
-
-    public void removeChild(Node child) {
-        children.remove(getNodeWithName(children, child.getName()));
-    }
-
     @Override
     public String toString() {
         return name;
     }
+
+    /**
+     * the parents or the children of the node in the graph of its network
+     */
+    private class Neighbours extends AbstractSet<Node> {
+        private final boolean ofParents;
+
+        Neighbours(boolean ofParents) {
+            this.ofParents = ofParents;
+        }
+
+        @Override
+        public int size() {
+            if (index < 0) {
+                return 0;
+            }
+            IndexedGraph graph = network.getGraph();
+            return ofParents ? graph.getNumberOfParents(index) : graph.getNumberOfChildren(index);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (index < 0 || !(o instanceof Node)) {
+                return false;
+            }
+            Node other = (Node) o;
+            if (other.index < 0 || other.network != network) {
+                return false;
+            }
+            IndexedGraph graph = network.getGraph();
+            return ofParents ? graph.hasEdge(other.index, index) : graph.hasEdge(index, other.index);
+        }
+
+        @Override
+        public Iterator<Node> iterator() {
+            return new Iterator<Node>() {
+                private int k = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return k < size();
+                }
+
+                @Override
+                public Node next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    IndexedGraph graph = network.getGraph();
+                    int other = ofParents ? graph.getParent(index, k) : graph.getChild(index, k);
+                    k++;
+                    return network.getNode(other);
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * The scratch space of the searches that only read a graph, one for every thread, so the queries
+ * of a network can be asked from several threads at the same time. A search must be over before the
+ * thread starts the next one.
+ */
+final class PathSearch {
+    private static final ThreadLocal<PathSearch> SEARCHES = ThreadLocal.withInitial(PathSearch::new);
+
+    // one longer than the number of nodes, a search may come back to the node it started from
+    int[] stack = new int[0];
+    // visited[i] == the mark of the current search marks the nodes it has seen
+    int[] visited = new int[0];
+    private int visitMark;
+
+    private PathSearch() {
+    }
+
+    /**
+     * @return the scratch space of the current thread
+     */
+    static PathSearch get() {
+        return SEARCHES.get();
+    }
+
+    /**
+     * @param size the number of nodes of the graph searched
+     * @return the mark of the nodes visited by the new search
+     */
+    int start(int size) {
+        if (visited.length < size) {
+            stack = new int[size + 1];
+            visited = new int[size];
+            visitMark = 0;
+        }
+        if (++visitMark == 0) {
+            Arrays.fill(visited, 0);
+            visitMark = 1;
+        }
+        return visitMark;
+    }
+}
@@ -0,0 +1,223 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * The transitive closure of a graph: a bitset of the descendants and one of the ancestors of every
+ * node, updated on every change of the edges, so whether there is a path from one node to another
+ * is a single bit test.
+ * <p>
+ * Adding an edge from u to v adds v and the descendants of v to the descendants of u and of every
+ * ancestor of u, and the other way round for the ancestors. Deleting it can only change the
+ * descendants of u and its ancestors and the ancestors of v and its descendants, and those are
+ * computed again from their neighbours, children before parents.
+ */
+final class Reachability {
+    private final IndexedGraph graph;
+    private int size;
+    // the number of longs in a row of the bitsets
+    private int words = 1;
+    private long[][] descendants = new long[16][];
+    private long[][] ancestors = new long[16][];
+
+    // scratch space of the updates
+    private long[] sources = new long[1];
+    private long[] targets = new long[1];
+    private int[] order = new int[16];
+    private int[] stack = new int[16];
+    private int[] positions = new int[16];
+    private byte[] states = new byte[16];
+
+    /**
+     * @param graph the graph whose closure is kept, it must have no edges yet
+     */
+    Reachability(IndexedGraph graph) {
+        this.graph = graph;
+    }
+
+    void addNode() {
+        if (size == descendants.length) {
+            int capacity = 2 * size;
+            descendants = Arrays.copyOf(descendants, capacity);
+            ancestors = Arrays.copyOf(ancestors, capacity);
+            order = Arrays.copyOf(order, capacity);
+            stack = Arrays.copyOf(stack, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            states = Arrays.copyOf(states, capacity);
+        }
+        if (size == 64 * words) {
+            words *= 2;
+            for (int i = 0; i < size; i++) {
+                descendants[i] = Arrays.copyOf(descendants[i], words);
+                ancestors[i] = Arrays.copyOf(ancestors[i], words);
+            }
+            sources = new long[words];
+            targets = new long[words];
+        }
+        descendants[size] = new long[words];
+        ancestors[size] = new long[words];
+        size++;
+    }
+
+    /**
+     * @return true if there is a directed path of at least one edge from one node to the other
+     */
+    boolean isReachable(int from, int to) {
+        return (descendants[from][to >>> 6] & (1L << to)) != 0;
+    }
+
+    /**
+     * @param upwards true for the ancestors of the node, false for its descendants
+     * @return the indexes of the nodes, in increasing order
+     */
+    int[] getReachable(int node, boolean upwards) {
+        long[] row = upwards ? ancestors[node] : descendants[node];
+        int count = 0;
+        for (long word : row) {
+            count += Long.bitCount(word);
+        }
+        int[] reachable = new int[count];
+        count = 0;
+        for (int w = 0; w < words; w++) {
+            for (long word = row[w]; word != 0; word &= word - 1) {
+                reachable[count++] = 64 * w + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * to be called after the edge from the parent to the child has been added to the graph
+     */
+    void edgeAdded(int parent, int child) {
+        if (isReachable(parent, child)) {
+            // every path through the new edge was there already
+            return;
+        }
+        // the rows change while they are updated if the edge closes a cycle, so copies are used
+        System.arraycopy(ancestors[parent], 0, sources, 0, words);
+        sources[parent >>> 6] |= 1L << parent;
+        System.arraycopy(descendants[child], 0, targets, 0, words);
+        targets[child >>> 6] |= 1L << child;
+        for (int w = 0; w < words; w++) {
+            for (long word = sources[w]; word != 0; word &= word - 1) {
+                or(descendants[64 * w + Long.numberOfTrailingZeros(word)], targets);
+            }
+        }
+        for (int w = 0; w < words; w++) {
+            for (long word = targets[w]; word != 0; word &= word - 1) {
+                or(ancestors[64 * w + Long.numberOfTrailingZeros(word)], sources);
+            }
+        }
+    }
+
+    /**
+     * to be called after the edge from the parent to the child has been deleted from the graph
+     */
+    void edgeRemoved(int parent, int child) {
+        System.arraycopy(ancestors[parent], 0, sources, 0, words);
+        sources[parent >>> 6] |= 1L << parent;
+        System.arraycopy(descendants[child], 0, targets, 0, words);
+        targets[child >>> 6] |= 1L << child;
+        recompute(sources, false);
+        recompute(targets, true);
+    }
+
+    /**
+     * computes the rows of the affected nodes again: in the order of a depth-first search that
+     * finishes the neighbours of a node before the node, every row is the union of the rows of the
+     * neighbours and the neighbours themselves. The rows of the nodes that are not affected are still
+     * right. If the affected nodes are on a cycle there is no such order, and each of their rows is
+     * computed by a search of its own.
+     *
+     * @param affected the nodes whose rows may have changed
+     * @param upwards  true to compute the ancestors, false to compute the descendants
+     */
+    private void recompute(long[] affected, boolean upwards) {
+        long[][] rows = upwards ? ancestors : descendants;
+        int count = sortAffected(affected, upwards);
+        if (count < 0) {
+            int[] reached = new int[size];
+            for (int w = 0; w < words; w++) {
+                for (long word = affected[w]; word != 0; word &= word - 1) {
+                    int node = 64 * w + Long.numberOfTrailingZeros(word);
+                    long[] row = rows[node];
+                    Arrays.fill(row, 0);
+                    int numberOfReached = graph.collectReachable(node, upwards, reached);
+                    for (int i = 0; i < numberOfReached; i++) {
+                        row[reached[i] >>> 6] |= 1L << reached[i];
+                    }
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            int node = order[i];
+            long[] row = rows[node];
+            Arrays.fill(row, 0);
+            int numberOfNeighbours = upwards ? graph.getNumberOfParents(node) : graph.getNumberOfChildren(node);
+            for (int k = 0; k < numberOfNeighbours; k++) {
+                int neighbour = upwards ? graph.getParent(node, k) : graph.getChild(node, k);
+                row[neighbour >>> 6] |= 1L << neighbour;
+                or(row, rows[neighbour]);
+            }
+        }
+    }
+
+    /**
+     * puts the affected nodes into order so that every node comes after its affected neighbours
+     *
+     * @return the number of affected nodes, or -1 if they are on a cycle
+     */
+    private int sortAffected(long[] affected, boolean upwards) {
+        final byte unvisited = 0, open = 1, finished = 2;
+        for (int w = 0; w < words; w++) {
+            for (long word = affected[w]; word != 0; word &= word - 1) {
+                states[64 * w + Long.numberOfTrailingZeros(word)] = unvisited;
+            }
+        }
+        int count = 0;
+        boolean cyclic = false;
+        for (int w = 0; w < words && !cyclic; w++) {
+            for (long word = affected[w]; word != 0 && !cyclic; word &= word - 1) {
+                int start = 64 * w + Long.numberOfTrailingZeros(word);
+                if (states[start] != unvisited) {
+                    continue;
+                }
+                int top = 0;
+                stack[top] = start;
+                positions[top++] = 0;
+                states[start] = open;
+                while (top > 0 && !cyclic) {
+                    int node = stack[top - 1];
+                    int numberOfNeighbours = upwards ? graph.getNumberOfParents(node) : graph.getNumberOfChildren(node);
+                    if (positions[top - 1] == numberOfNeighbours) {
+                        states[node] = finished;
+                        order[count++] = node;
+                        top--;
+                        continue;
+                    }
+                    int k = positions[top - 1]++;
+                    int neighbour = upwards ? graph.getParent(node, k) : graph.getChild(node, k);
+                    if ((affected[neighbour >>> 6] & (1L << neighbour)) == 0 || states[neighbour] == finished) {
+                        continue;
+                    }
+                    if (states[neighbour] == open) {
+                        cyclic = true;
+                    } else {
+                        states[neighbour] = open;
+                        stack[top] = neighbour;
+                        positions[top++] = 0;
+                    }
+                }
+            }
+        }
+        return cyclic ? -1 : count;
+    }
+
+    private void or(long[] target, long[] source) {
+        for (int w = 0; w < words; w++) {
+            target[w] |= source[w];
+        }
+    }
+}
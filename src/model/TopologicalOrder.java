@@ -0,0 +1,232 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A topological order of the nodes of a graph, kept up to date as the edges change with the
+ * algorithm of Pearce and Kelly: an edge from x to y that goes backwards in the order only
+ * reorders the nodes between the positions of y and x that are reachable from y or reach x.
+ * Deleting an edge leaves the order valid. While the graph has a cycle there is no order, and it is
+ * computed again from scratch when an edge is deleted.
+ * <p>
+ * As a node can only reach nodes after it, a search for a path only has to look at the nodes
+ * between the two ends, and it takes memory linear in the number of nodes, unlike {@link Reachability}.
+ */
+final class TopologicalOrder {
+    private final IndexedGraph graph;
+    private int size;
+    // the position of every node, and the node at every position
+    private int[] positions = new int[16];
+    private int[] nodes = new int[16];
+    private boolean acyclic = true;
+
+    // scratch space of the updates, visited[i] == visitMark marks the nodes seen by the current search
+    private int[] stack = new int[16];
+    private int[] visited = new int[16];
+    private int visitMark;
+    private int[] forward = new int[16];
+    private int[] backward = new int[16];
+    private int[] merged = new int[16];
+
+    /**
+     * @param graph the graph whose nodes are ordered, it must have no edges yet
+     */
+    TopologicalOrder(IndexedGraph graph) {
+        this.graph = graph;
+    }
+
+    void addNode() {
+        if (size == positions.length) {
+            int capacity = 2 * size;
+            positions = Arrays.copyOf(positions, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            stack = Arrays.copyOf(stack, capacity);
+            visited = Arrays.copyOf(visited, capacity);
+            forward = Arrays.copyOf(forward, capacity);
+            backward = Arrays.copyOf(backward, capacity);
+            merged = Arrays.copyOf(merged, capacity);
+        }
+        // a node without edges can go anywhere, so it goes to the end
+        positions[size] = size;
+        nodes[size] = size;
+        size++;
+    }
+
+    /**
+     * @return true if the graph has no directed cycle
+     */
+    boolean isAcyclic() {
+        return acyclic;
+    }
+
+    /**
+     * @return true if there is a directed path of at least one edge from one node to the other
+     */
+    boolean hasPath(int from, int to) {
+        return hasPath(from, to, false);
+    }
+
+    /**
+     * @return true if there is a directed path from one node to the other that is not the edge
+     * between them, that is if reversing the edge would close a cycle
+     */
+    boolean hasPathBesidesEdge(int from, int to) {
+        return hasPath(from, to, true);
+    }
+
+    private boolean hasPath(int from, int to, boolean besidesEdge) {
+        if (acyclic && positions[from] >= positions[to]) {
+            return false;
+        }
+        // without a cycle the path can only go through the nodes before the end of it
+        int bound = acyclic ? positions[to] : size;
+        // the queries only read the graph and the order, and each thread searches in space of its own
+        PathSearch search = PathSearch.get();
+        int mark = search.start(size);
+        int[] stack = search.stack;
+        int[] visited = search.visited;
+        int top = 0;
+        stack[top++] = from;
+        visited[from] = mark;
+        while (top > 0) {
+            int node = stack[--top];
+            for (int k = 0; k < graph.getNumberOfChildren(node); k++) {
+                int child = graph.getChild(node, k);
+                if (child == to) {
+                    if (besidesEdge && node == from) {
+                        continue;
+                    }
+                    return true;
+                }
+                if (visited[child] != mark && positions[child] < bound) {
+                    visited[child] = mark;
+                    stack[top++] = child;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * to be called after the edge from the parent to the child has been added to the graph
+     */
+    void edgeAdded(int parent, int child) {
+        if (!acyclic || positions[parent] < positions[child]) {
+            return;
+        }
+        int lowerBound = positions[child];
+        int upperBound = positions[parent];
+
+        // the nodes reachable from the child that are not after the parent
+        int numberOfForward = 0;
+        int mark = nextVisitMark();
+        int top = 0;
+        stack[top++] = child;
+        visited[child] = mark;
+        while (top > 0) {
+            int node = stack[--top];
+            forward[numberOfForward++] = positions[node];
+            for (int k = 0; k < graph.getNumberOfChildren(node); k++) {
+                int next = graph.getChild(node, k);
+                if (next == parent) {
+                    acyclic = false;
+                    return;
+                }
+                if (visited[next] != mark && positions[next] < upperBound) {
+                    visited[next] = mark;
+                    stack[top++] = next;
+                }
+            }
+        }
+
+        // the nodes the parent is reachable from that are not before the child
+        int numberOfBackward = 0;
+        mark = nextVisitMark();
+        stack[top++] = parent;
+        visited[parent] = mark;
+        while (top > 0) {
+            int node = stack[--top];
+            backward[numberOfBackward++] = positions[node];
+            for (int k = 0; k < graph.getNumberOfParents(node); k++) {
+                int next = graph.getParent(node, k);
+                if (visited[next] != mark && positions[next] > lowerBound) {
+                    visited[next] = mark;
+                    stack[top++] = next;
+                }
+            }
+        }
+
+        // the backward nodes take the first of the positions the two sets had, the forward ones the
+        // rest, both keeping their order
+        Arrays.sort(forward, 0, numberOfForward);
+        Arrays.sort(backward, 0, numberOfBackward);
+        int numberOfMerged = 0;
+        for (int i = 0, j = 0; i < numberOfBackward || j < numberOfForward; ) {
+            if (j == numberOfForward || (i < numberOfBackward && backward[i] < forward[j])) {
+                merged[numberOfMerged++] = backward[i++];
+            } else {
+                merged[numberOfMerged++] = forward[j++];
+            }
+        }
+        for (int i = 0; i < numberOfBackward; i++) {
+            backward[i] = nodes[backward[i]];
+        }
+        for (int i = 0; i < numberOfForward; i++) {
+            forward[i] = nodes[forward[i]];
+        }
+        for (int i = 0; i < numberOfMerged; i++) {
+            int node = i < numberOfBackward ? backward[i] : forward[i - numberOfBackward];
+            positions[node] = merged[i];
+            nodes[merged[i]] = node;
+        }
+    }
+
+    /**
+     * to be called after the edge from the parent to the child has been deleted from the graph
+     */
+    void edgeRemoved(int parent, int child) {
+        if (!acyclic) {
+            computeOrder();
+        }
+    }
+
+    /**
+     * orders the nodes from scratch, by taking the nodes without parents one after the other
+     */
+    private void computeOrder() {
+        int[] remainingParents = merged;
+        int top = 0;
+        for (int i = 0; i < size; i++) {
+            remainingParents[i] = graph.getNumberOfParents(i);
+            if (remainingParents[i] == 0) {
+                stack[top++] = i;
+            }
+        }
+        int count = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            forward[count++] = node;
+            for (int k = 0; k < graph.getNumberOfChildren(node); k++) {
+                int child = graph.getChild(node, k);
+                if (--remainingParents[child] == 0) {
+                    stack[top++] = child;
+                }
+            }
+        }
+        acyclic = count == size;
+        if (acyclic) {
+            for (int i = 0; i < size; i++) {
+                nodes[i] = forward[i];
+                positions[forward[i]] = i;
+            }
+        }
+    }
+
+    private int nextVisitMark() {
+        if (++visitMark == 0) {
+            Arrays.fill(visited, 0);
+            visitMark = 1;
+        }
+        return visitMark;
+    }
+}
@@ -1,357 +1,247 @@
 package search;
 
+import data.DataStatistics;
 import model.Network;
 import model.Node;
-import org.apache.commons.math3.special.Gamma;
-import org.jblas.Decompose;
-import org.jblas.DoubleMatrix;
-import org.jblas.Solve;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.*;
+import java.util.Arrays;
 
 
 /**
  * Created by Benedek on 5/5/2016.
+ * The BGe score of the moves. The data are only read through an immutable {@link ScoringStatistics}
+ * and the cache of the family scores is shared, while the arrays and factors the scores are
+ * computed in belong to the thread that scores.
  */
-public class BayesianScoring {
-    private static BayesianScoring ourInstance = new BayesianScoring();
-    private Move move;
-    private Network network;
-    private String fileName;
-    private Double v, alpha;
-    private int n;
-    private DoubleMatrix mean;
-    private DoubleMatrix variance;
-    private DoubleMatrix beta;
-    private List<String> namesOfNodes;
-    private Set<Integer> indexes;
-    private int dataLength;
-    private DoubleMatrix betaStar;
-    private DoubleMatrix mu;
-    private int numberOfLinesToUse;
-    private double lambda = 0.2;
+public class BayesianScoring implements ScoreFunction {
+    public static final long DEFAULT_FAMILY_CACHE_SIZE = 64L << 20;
 
-    private BayesianScoring() {
-    }
+    private final ScoringStatistics statistics;
+    private final int n;
+    private final FamilyScoreCache familyScoreCache;
+    private final ThreadLocal<Workspace> workspaces;
 
-    public static BayesianScoring getInstance() {
-        if (ourInstance == null) {
-            ourInstance = new BayesianScoring();
-        }
-        return ourInstance;
+    public BayesianScoring(DataStatistics statistics) {
+        this(new ScoringStatistics(statistics), DEFAULT_FAMILY_CACHE_SIZE);
     }
 
-    public void setFileName(String fileName) {
-        this.fileName = fileName;
+    /**
+     * @param statistics      the statistics of the data, they can be shared by several scoring functions
+     * @param familyCacheSize the memory the cache of the family scores may use in bytes, 0 turns the cache off
+     */
+    public BayesianScoring(ScoringStatistics statistics, long familyCacheSize) {
+        this(statistics, familyCacheSize > 0 ? new FamilyScoreCache(statistics.size(), familyCacheSize) : null);
     }
 
-    public void setNetwork(Network network) {
-        this.network = network;
+    /**
+     * @param statistics       the statistics of the data, they can be shared by several scoring functions
+     * @param familyScoreCache the cache of the family scores, it must only hold scores computed from
+     *                         the same statistics, null turns the cache off
+     */
+    public BayesianScoring(ScoringStatistics statistics, FamilyScoreCache familyScoreCache) {
+        this.statistics = statistics;
+        n = statistics.size();
+        this.familyScoreCache = familyScoreCache;
+        workspaces = ThreadLocal.withInitial(() -> new Workspace(n));
     }
 
-    public void setMove(Move move) {
-        this.move = move;
+    public ScoringStatistics getStatistics() {
+        return statistics;
     }
 
-    public void setLambda(Double lambda) {
-        this.lambda = lambda;
+    @Override
+    public int size() {
+        return n;
     }
 
-    public void initializeValues() {
-        mean = getMeansOfData(fileName, numberOfLinesToUse);
-        variance = getVarianceOfData(fileName, numberOfLinesToUse);
-        mu = DoubleMatrix.zeros(n, 1);
-    }
-
-    private DoubleMatrix getMeansOfData(String fileName, int numberOfLinesToUse) {
-        double[] sumOfColumns = new double[0];
-        try {
-            Scanner scanner = new Scanner(new File(fileName));
-            scanner.useDelimiter(",");
-            String headerLine = scanner.nextLine();
-            namesOfNodes = Arrays.asList(headerLine.split(","));
-            int numberOfColumns = headerLine.split(",").length;
-            sumOfColumns = new double[numberOfColumns];
-            String[] values;
-            int dataLines = 0;
-            while (scanner.hasNextLine() && dataLines < numberOfLinesToUse) {
-                String line = scanner.nextLine();
-                values = line.split(",");
-                for (int i = 0; i < numberOfColumns; i++) {
-                    sumOfColumns[i] += Double.valueOf(values[i]);
-                }
-                dataLines++;
-            }
-            dataLength = dataLines;
-            for (int i = 0; i < numberOfColumns; i++) {
-                sumOfColumns[i] = sumOfColumns[i] / dataLines;
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+    @Override
+    public void printCacheStatistics() {
+        if (familyScoreCache != null) {
+            System.out.println(familyScoreCache);
         }
-
-        return sumOfColumns.length == 0 ? null : new DoubleMatrix(sumOfColumns);
     }
 
-    private DoubleMatrix getVarianceOfData(String fileName, int numberOfLinesToUse) {
-        DoubleMatrix sumOfVariances = null;
-        try {
-            Scanner scanner = new Scanner(new File(fileName));
-            scanner.useDelimiter(",");
-            String headerLine = scanner.nextLine();
-            n = headerLine.split(",").length;
-            sumOfVariances = new DoubleMatrix(n, n);
-            String[] stringValues;
-            double[] realValues;
-            int dataLines = 0;
-            while (scanner.hasNextLine() && dataLines < numberOfLinesToUse) {
-                String line = scanner.nextLine();
-                stringValues = line.split(",");
-                realValues = new double[n];
-                int columnIndex = 0;
-                for (String s : stringValues) {
-                    realValues[columnIndex] = Double.valueOf(stringValues[columnIndex]);
-                    columnIndex++;
-                }
-                dataLines++;
-
-                DoubleMatrix deviation = new DoubleMatrix(realValues);
-                deviation = deviation.sub(mean);
-                DoubleMatrix variance = deviation.mmul(deviation.transpose());
-                sumOfVariances = sumOfVariances.add(variance);
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+    @Override
+    public double calculateScoreOfMove(MoveType type, Node parent, Node child) {
+        Workspace workspace = workspaces.get();
+        if (type == MoveType.adding) {
+            return calculateScore(workspace, child, parent, true) - calculateScore(workspace, child, null, false);
         }
 
-        return sumOfVariances;
-    }
-
-    public void setNumberOfLinesToUse(int numberOfLinesToUse) {
-        this.numberOfLinesToUse = numberOfLinesToUse;
-    }
-
-    public Double calculateScoreOfMove() {
-        Double score;
-        Node parent = move.getEdge().getParent();
-        Node child = move.getEdge().getChild();
-
-
-        Double scoreBefore, scoreAfter;
-        if (move.getType() == MoveType.adding) {
-            scoreBefore = calculateScore();
-            network.addNewEdge(parent, child);
-            scoreAfter = calculateScore();
-            network.deleteEdge(parent, child);
-        } else if (move.getType() == MoveType.deleting) {
-            scoreBefore = calculateScore();
-            network.deleteEdge(parent, child);
-            scoreAfter = calculateScore();
-            network.addNewEdge(parent, child);
-        } else {
-            scoreBefore = calculateScore();
-            network.reverseEdge(parent, child);
-            scoreAfter = calculateScore();
-            network.reverseEdge(child, parent);
+        double score = calculateScore(workspace, child, parent, false) - calculateScore(workspace, child, null, false);
+        if (type == MoveType.reversing) {
+            // the edge also appears in the family of the old parent, with the roles swapped
+            score += calculateScore(workspace, parent, child, true) - calculateScore(workspace, parent, null, false);
         }
-
-        // it has to be subtraction because we calculate the logarithms of the scores
-        score = scoreAfter - scoreBefore;
         return score;
     }
 
-    private Double calculateScore() {
-        Set<Node> parents = new HashSet<>(move.getEdge().getChild().getParents());
-        Node child = move.getEdge().getChild();
-
-        Double denominator = empiricalProbability(parents);
-        parents.add(child);
-        Double numerator = empiricalProbability(parents);
-
-        return numerator - denominator;
-    }
-
-    private Double empiricalProbability(Set<Node> nodes) {
-        if (nodes.size() == 0) {
-            return 0.0;
-        }
-        int lw = nodes.size();
-
-        DoubleMatrix betaW = getBetaW(nodes);
-        DoubleMatrix betaStarW = getBetaStarW(betaW);
-        Double alphaw = alpha - n + lw;
-        int M = dataLength;
-
-        /*double ans = Math.pow((1 / (2 * Math.PI)), M * lw / 2) *
-                Math.pow((v / (v + M)), lw / 2) *
-                (c(lw, alphaw) / c(lw, alphaw + M)) *
-                (Math.pow(getDeterminant(betaW), alphaw / 2) / Math.pow(getDeterminant(betaStarW), (alphaw + M) / 2));*/
-        Double ans = (M * lw / 2) * Math.log(1 / (2 * Math.PI)) +
-                (lw / 2) * Math.log(v / (v + M)) +
-                (logc(lw, alphaw) - logc(lw, alphaw + M)) +
-                ((alphaw / 2) * Math.log(getDeterminant(betaW)) - ((alphaw + M) / 2) * Math.log(getDeterminant(betaStarW)));
-
-        return ans;
-    }
-
-    private DoubleMatrix getBetaW(Set<Node> nodes) {
-        DoubleMatrix inverseBeta = Solve.pinv(getBeta());
-        indexes = new TreeSet<>();
-        for (Node n : nodes) {
-            indexes.add(namesOfNodes.indexOf(n.getName()));
-        }
-        DoubleMatrix inverseBetaW = getSubMatrix(inverseBeta, indexes);
-        return Solve.pinv(inverseBetaW);
-    }
-
-    public DoubleMatrix getBetaStarW(DoubleMatrix betaW) {
-        int M = dataLength;
-        DoubleMatrix meanW = getSubVector(mean, indexes);
-        DoubleMatrix muW = getSubVector(mu, indexes);
-        return betaW.add(getSubMatrix(variance, indexes)).add(meanW.sub(muW).mmul(meanW.sub(muW).transpose())).mul(((v * M) / (v + M)));
-    }
-
-    private double logc(int nPar, Double alphaPar) {
-        double sum = 0;
-        for (int i = 1; i <= nPar; i++) {
-            sum += Gamma.logGamma((alphaPar + 1 - i) / 2);
-        }
-        return -1 * ((alphaPar * nPar / 2) * Math.log(2) + (n * (n - 1) / 4) * Math.log(Math.PI) + sum);
-    }
-
-    public double getDeterminant(DoubleMatrix matrix) {
-        if (matrix.rows != matrix.columns) {
-            throw new IllegalArgumentException("The matrix is not a square matrix.");
-        }
-        Decompose.LUDecomposition<DoubleMatrix> LUDecomposition = Decompose.lu(matrix);
-
-        Double determinant = 1.0;
-        for (int i = 0; i < LUDecomposition.l.columns; i++) {
-            determinant *= LUDecomposition.l.get(i, i);
-            determinant *= LUDecomposition.u.get(i, i);
-        }
-        determinant *= getSignOfPermutation(LUDecomposition.p);
-
-        return determinant;
-    }
-
-    public DoubleMatrix getBeta() {
-        if (beta == null) {
-            calculateBeta();
-        }
-        return beta;
-    }
-
-    private DoubleMatrix getSubMatrix(DoubleMatrix matrix, Set<Integer> indexes) {
-        DoubleMatrix temp = new DoubleMatrix(indexes.size(), matrix.getColumns());
-        int newIndexRow = 0;
-        for (Integer row : indexes) {
-            for (int col = 0; col < matrix.columns; col++) {
-                temp.put(newIndexRow, col, matrix.get(row, col));
+    /**
+     * calculates the score of the family of the child, with its current parents or with one parent
+     * added or removed, from the Cholesky factor kept for the current parents of the child
+     *
+     * @param workspace     the arrays of the current thread
+     * @param child         the child of the family
+     * @param changedParent the parent to add or to remove, null for the current family
+     * @param adding        whether the parent should be added or removed
+     * @return the logarithm of the score of the family
+     */
+    private double calculateScore(Workspace workspace, Node child, Node changedParent, boolean adding) {
+        int[] parentIndexes = workspace.parentIndexes;
+        int[] familyIndexes = workspace.familyIndexes;
+        double[] logDeterminants = workspace.logDeterminants;
+        int childIndex = getIndexOfNode(workspace, child);
+        int count = 0;
+        for (Node parent : child.getParents()) {
+            parentIndexes[count++] = getIndexOfNode(workspace, parent);
+        }
+
+        int changed = -1;
+        if (changedParent != null && child.getParents().contains(changedParent) != adding) {
+            changed = getIndexOfNode(workspace, changedParent);
+        }
+        int familyCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (parentIndexes[i] != changed) {
+                familyIndexes[familyCount++] = parentIndexes[i];
             }
-            newIndexRow++;
         }
-
-        DoubleMatrix subMatrix = new DoubleMatrix(indexes.size(), indexes.size());
-        int newIndexCol = 0;
-        for (Integer col : indexes) {
-            for (int row = 0; row < temp.rows; row++) {
-                subMatrix.put(row, newIndexCol, temp.get(row, col));
-            }
-            newIndexCol++;
+        if (changed >= 0 && adding) {
+            familyIndexes[familyCount++] = changed;
         }
 
-        return subMatrix;
-    }
-
-    private DoubleMatrix getSubVector(DoubleMatrix vector, Set<Integer> indexes) {
-        if (vector.rows != 1 && vector.columns != 1) {
-            throw new IllegalArgumentException("This is not a vector!");
-        }
-        boolean transposed = false;
-        if (vector.rows == 1) {
-            vector = vector.transpose();
-            transposed = true;
-        }
-
-        DoubleMatrix subVector = new DoubleMatrix(indexes.size(), 1);
-        int newIndexRow = 0;
-        for (Integer row : indexes) {
-            subVector.put(newIndexRow, 0, vector.get(row, 0));
-            newIndexRow++;
-        }
-
-        if (transposed) {
-            subVector = subVector.transpose();
-        }
-
-        return subVector;
-    }
-
-    private Integer getSignOfPermutation(DoubleMatrix p) {
-        List<Integer> inversions = new ArrayList<>(Collections.nCopies(p.rows, 0));
-
-        List<Integer> permutation = new ArrayList<>(Collections.nCopies(p.rows, 0));
-        for (int i = 0; i < p.rows; i++) {
-            for (int j = 0; j < p.columns; j++) {
-                if (p.get(i, j) > 0) {
-                    permutation.set(i, j);
-                    break;
-                }
-            }
-        }
-
-        for (int i = 0; i < permutation.size(); i++) {
-            int numberOfInversions = 0;
-            for (int j = i + 1; j < permutation.size(); j++) {
-                if (permutation.get(i) > permutation.get(j)) {
-                    numberOfInversions++;
-                }
+        if (familyScoreCache != null) {
+            familyScoreCache.getKey(childIndex, familyIndexes, familyCount, workspace.key, workspace.sortedParents);
+            double score = familyScoreCache.get(workspace.key);
+            if (!Double.isNaN(score)) {
+                return score;
             }
-            inversions.set(i, numberOfInversions);
         }
 
-        int sum = 0;
-        for (Integer i : inversions) {
-            if (i > 0) {
-                sum += i;
-            }
+        FamilyFactor factor = getFactor(workspace, childIndex);
+        factor.update(parentIndexes, count);
+        if (changed < 0) {
+            logDeterminants[0] = factor.getLogDeterminant();
+            logDeterminants[1] = factor.getLogDeterminantOfFamily();
+        } else if (adding) {
+            factor.getLogDeterminantsWith(changed, logDeterminants);
+        } else {
+            factor.getLogDeterminantsWithout(changed, logDeterminants);
         }
 
-        return sum % 2 == 0 ? 1 : -1;
-    }
-
-    private DoubleMatrix calculateBeta() {
-        DoubleMatrix T = DoubleMatrix.eye(network.size());
-
-        v = (double) (n + 1);
-        alpha = (double) n;
-
-        beta = T.mul(v * (alpha - n + 1) / (v + 1));
-        return beta;
-    }
-
-    private double c(int nPar, Double alphaPar) {
-        double product = 1;
-        for (int i = 1; i <= nPar; i++) {
-            product *= Gamma.gamma((alphaPar + 1 - i) / 2);
+        double score = statistics.getFamilyScore(familyCount, logDeterminants[0], logDeterminants[1]);
+        if (familyScoreCache != null) {
+            familyScoreCache.put(workspace.key, score);
         }
-        return 1 / (Math.pow(2, alphaPar * nPar / 2) * Math.pow(Math.PI, nPar * (nPar - 1) / 4) * product);
+        return score;
     }
 
-    public DoubleMatrix getBetaStar() {
-        if (betaStar == null) {
-            calculateBetaStar();
+    /**
+     * calculates the scores of all the moves that add a parent to the child or delete one of its
+     * parents in one go, from the factor of its current family: the additions of all the nodes are
+     * computed together, the deletions from the factor one by one
+     */
+    @Override
+    public void calculateScoresOfParentChanges(Node child, double[] additions, double[] deletions) {
+        Workspace workspace = workspaces.get();
+        double currentScore = calculateScore(workspace, child, null, false);
+        int childIndex = getIndexOfNode(workspace, child);
+        FamilyFactor factor = getFactor(workspace, childIndex);
+        // the current family may have come from the cache, so the factor is brought up to date here
+        int count = 0;
+        for (Node parent : child.getParents()) {
+            workspace.parentIndexes[count++] = getIndexOfNode(workspace, parent);
+        }
+        factor.update(workspace.parentIndexes, count);
+        count = factor.getParents(workspace.parentIndexes);
+
+        if (workspace.batchWorkspace.length < (count + 1) * n) {
+            workspace.batchWorkspace = new double[(count + 1) * n];
+        }
+        double[] withParent = workspace.batchWithParent;
+        double[] withFamily = workspace.batchWithFamily;
+        factor.getLogDeterminantsWithEach(workspace.batchWorkspace, withParent, withFamily);
+        for (int i = 0; i < n; i++) {
+            additions[i] = statistics.getFamilyScore(count + 1, withParent[i], withFamily[i]) - currentScore;
+        }
+        additions[childIndex] = Double.NaN;
+
+        Arrays.fill(deletions, Double.NaN);
+        for (int i = 0; i < count; i++) {
+            int parent = workspace.parentIndexes[i];
+            additions[parent] = Double.NaN;
+            factor.getLogDeterminantsWithout(parent, workspace.logDeterminants);
+            deletions[parent] = statistics.getFamilyScore(count - 1, workspace.logDeterminants[0], workspace.logDeterminants[1]) - currentScore;
+        }
+    }
+
+    @Override
+    public int getIndexOfNode(Node node) {
+        return getIndexOfNode(workspaces.get(), node);
+    }
+
+    /**
+     * @return the index of the column of the data that belongs to the node, it only has to be looked
+     * up by the name of the node the first time
+     */
+    private int getIndexOfNode(Workspace workspace, Node node) {
+        int index = node.getIndex();
+        if (index < 0) {
+            return statistics.getIndexOfNode(node.getName());
+        }
+        if (node.getNetwork() != workspace.network) {
+            // the indexes of the nodes belong to the network
+            workspace.network = node.getNetwork();
+            Arrays.fill(workspace.columnOfNode, -1);
+        }
+        int[] columnOfNode = workspace.columnOfNode;
+        if (index >= columnOfNode.length) {
+            int oldLength = columnOfNode.length;
+            columnOfNode = Arrays.copyOf(columnOfNode, Math.max(index + 1, 2 * oldLength));
+            Arrays.fill(columnOfNode, oldLength, columnOfNode.length, -1);
+            workspace.columnOfNode = columnOfNode;
+        }
+        if (columnOfNode[index] < 0) {
+            columnOfNode[index] = statistics.getIndexOfNode(node.getName());
+        }
+        return columnOfNode[index];
+    }
+
+    private FamilyFactor getFactor(Workspace workspace, int childIndex) {
+        if (workspace.factors[childIndex] == null) {
+            workspace.factors[childIndex] = new FamilyFactor(statistics, childIndex);
+        }
+        return workspace.factors[childIndex];
+    }
+
+    /**
+     * the arrays and the factors of the families one thread computes the scores in
+     */
+    private static class Workspace {
+        final int[] parentIndexes;
+        final int[] familyIndexes;
+        final int[] sortedParents;
+        final long[] key = new long[2];
+        final double[] logDeterminants = new double[2];
+        // the factors of the current families, by the index of the child
+        final FamilyFactor[] factors;
+        double[] batchWorkspace = new double[0];
+        final double[] batchWithParent;
+        final double[] batchWithFamily;
+        // the network the columns of the nodes were looked up in
+        Network network;
+        // the column of the data that belongs to the node with the given index, -1 if not looked up yet
+        int[] columnOfNode;
+
+        Workspace(int n) {
+            parentIndexes = new int[n];
+            familyIndexes = new int[n];
+            sortedParents = new int[n];
+            factors = new FamilyFactor[n];
+            batchWithParent = new double[n];
+            batchWithFamily = new double[n];
+            columnOfNode = new int[n];
+            Arrays.fill(columnOfNode, -1);
         }
-        return betaStar;
     }
-
-    private void calculateBetaStar() {
-        int M = dataLength;
-        betaStar = getBeta().add(variance).add(mean.sub(mu).mmul(mean.sub(mu).transpose())).mul(((v * M) / (v + M)));
-    }
-
-
 }
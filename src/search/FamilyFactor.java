@@ -0,0 +1,259 @@
+package search;
+
+import utils.Cholesky;
+
+/**
+ * The Cholesky factor of the posterior matrix over the current parents of one child, kept between
+ * the moves. The moves of a step change a family by a single parent, so the factors of the
+ * neighbouring families are derived from this one: an added parent is one more row, O(k^2), a
+ * removed one is a downdate, O(k^2), and the child always goes last, so the same factorization
+ * gives the determinant of the parents and of the whole family.
+ * When the parents of the child change, the factor follows them the same way, and it is only
+ * computed from scratch if more than one parent has changed since it was last used.
+ * A factor is only used by one thread, every thread scoring keeps factors of its own.
+ */
+class FamilyFactor {
+    private final ScoringStatistics statistics;
+    private final int child;
+    // the parents in the order of the rows of the factor
+    private int[] parents = new int[0];
+    private int count;
+    private int stride;
+    private double[] factor = new double[0];
+    private double logDeterminant;
+
+    // copy of the factor the neighbouring families are computed in
+    private double[] scratch = new double[0];
+    private double[] column = new double[0];
+    private double[] work = new double[0];
+
+    FamilyFactor(ScoringStatistics statistics, int child) {
+        this.statistics = statistics;
+        this.child = child;
+    }
+
+    /**
+     * brings the factor up to date with the current parents of the child
+     *
+     * @param currentParents indexes of the parents
+     * @param currentCount   the number of parents
+     */
+    void update(int[] currentParents, int currentCount) {
+        int missing = -1;
+        int numberOfMissing = 0;
+        for (int i = 0; i < count; i++) {
+            if (!contains(currentParents, currentCount, parents[i])) {
+                missing = i;
+                numberOfMissing++;
+            }
+        }
+        int numberOfCommon = count - numberOfMissing;
+
+        if (numberOfMissing == 0 && numberOfCommon == currentCount) {
+            return;
+        }
+        if (numberOfMissing == 0 && numberOfCommon == currentCount - 1) {
+            for (int i = 0; i < currentCount; i++) {
+                if (!contains(parents, count, currentParents[i])) {
+                    addParent(currentParents[i]);
+                    return;
+                }
+            }
+        }
+        if (numberOfMissing == 1 && numberOfCommon == currentCount) {
+            ensureCapacity(count + 2);
+            Cholesky.deleteRow(factor, count, stride, missing, work);
+            System.arraycopy(parents, missing + 1, parents, missing, count - missing - 1);
+            count--;
+            logDeterminant = sumOfLogarithms(factor, count);
+            return;
+        }
+
+        count = 0;
+        logDeterminant = 0;
+        for (int i = 0; i < currentCount; i++) {
+            addParent(currentParents[i]);
+        }
+    }
+
+    private void addParent(int parent) {
+        ensureCapacity(count + 3);
+        fillColumn(parents, count, parent);
+        logDeterminant += logarithm(Cholesky.appendRow(factor, count, stride, column));
+        parents[count++] = parent;
+    }
+
+    /**
+     * @return the logarithm of the determinant of the posterior matrix over the parents
+     */
+    double getLogDeterminant() {
+        return logDeterminant;
+    }
+
+    /**
+     * @return the logarithm of the determinant of the posterior matrix over the parents and the child
+     */
+    double getLogDeterminantOfFamily() {
+        ensureCapacity(count + 2);
+        System.arraycopy(factor, 0, scratch, 0, count * stride);
+        fillColumn(parents, count, child);
+        return logDeterminant + logarithm(Cholesky.appendRow(scratch, count, stride, column));
+    }
+
+    /**
+     * computes the determinants of the family the child would have with one more parent
+     *
+     * @param parent the index of the new parent
+     * @param result the logarithm of the determinant over the parents is put in result[0],
+     *               the one over the parents and the child in result[1]
+     */
+    void getLogDeterminantsWith(int parent, double[] result) {
+        ensureCapacity(count + 3);
+        System.arraycopy(factor, 0, scratch, 0, count * stride);
+        fillColumn(parents, count, parent);
+        result[0] = logDeterminant + logarithm(Cholesky.appendRow(scratch, count, stride, column));
+
+        // the row of the new parent is not in the parents array, so the column is made up here
+        for (int i = 0; i < count; i++) {
+            column[i] = statistics.getPosterior(parents[i], child);
+        }
+        column[count] = statistics.getPosterior(parent, child);
+        column[count + 1] = statistics.getPosterior(child, child);
+        result[1] = result[0] + logarithm(Cholesky.appendRow(scratch, count + 1, stride, column));
+    }
+
+    /**
+     * computes the determinants of the family the child would have without one of its parents
+     *
+     * @param parent the index of the parent to leave out
+     * @param result the logarithm of the determinant over the parents is put in result[0],
+     *               the one over the parents and the child in result[1]
+     */
+    void getLogDeterminantsWithout(int parent, double[] result) {
+        int position = 0;
+        while (parents[position] != parent) {
+            position++;
+        }
+        ensureCapacity(count + 2);
+        System.arraycopy(factor, 0, scratch, 0, count * stride);
+        Cholesky.deleteRow(scratch, count, stride, position, work);
+        result[0] = sumOfLogarithms(scratch, count - 1);
+
+        int k = 0;
+        for (int i = 0; i < count; i++) {
+            if (i != position) {
+                column[k++] = statistics.getPosterior(parents[i], child);
+            }
+        }
+        column[k] = statistics.getPosterior(child, child);
+        result[1] = result[0] + logarithm(Cholesky.appendRow(scratch, count - 1, stride, column));
+    }
+
+    /**
+     * computes the determinants of the families the child would have with each node of the network
+     * added to its parents, all in one pass: the factor of the parents and the child is solved against
+     * the posterior columns of every candidate at once, row by row, so the inner loops run over the
+     * candidates and can be vectorized. The values for the child and its current parents are meaningless.
+     *
+     * @param workspace  array of at least (number of parents + 1) * n elements
+     * @param withParent the logarithm of the determinant over the parents and the candidate is put here
+     * @param withFamily the logarithm of the determinant over the parents, the candidate and the child is put here
+     */
+    void getLogDeterminantsWithEach(double[] workspace, double[] withParent, double[] withFamily) {
+        int n = withParent.length;
+        ensureCapacity(count + 2);
+        System.arraycopy(factor, 0, scratch, 0, count * stride);
+        fillColumn(parents, count, child);
+        double logDeterminantOfFamily = logDeterminant + logarithm(Cholesky.appendRow(scratch, count, stride, column));
+
+        // workspace row i: the solution of L * y = (the posterior column of each candidate), row i
+        for (int i = 0; i <= count; i++) {
+            int offset = i * n;
+            statistics.getPosteriorColumn(i < count ? parents[i] : child, workspace, offset);
+            int rowI = i * stride;
+            for (int q = 0; q < i; q++) {
+                double l = scratch[rowI + q];
+                int offsetQ = q * n;
+                for (int candidate = 0; candidate < n; candidate++) {
+                    workspace[offset + candidate] -= l * workspace[offsetQ + candidate];
+                }
+            }
+            double inverse = 1 / scratch[rowI + i];
+            for (int candidate = 0; candidate < n; candidate++) {
+                workspace[offset + candidate] *= inverse;
+            }
+        }
+
+        statistics.getPosteriorDiagonal(withParent);
+        for (int i = 0; i < count; i++) {
+            int offset = i * n;
+            for (int candidate = 0; candidate < n; candidate++) {
+                withParent[candidate] -= workspace[offset + candidate] * workspace[offset + candidate];
+            }
+        }
+        int offset = count * n;
+        for (int candidate = 0; candidate < n; candidate++) {
+            double squaredPivot = withParent[candidate];
+            double y = workspace[offset + candidate];
+            withParent[candidate] = logDeterminant + logarithm(squaredPivot);
+            withFamily[candidate] = logDeterminantOfFamily + logarithm(squaredPivot - y * y);
+        }
+    }
+
+    /**
+     * @return the number of parents the factor belongs to, their indexes are copied into the array
+     */
+    int getParents(int[] target) {
+        System.arraycopy(parents, 0, target, 0, count);
+        return count;
+    }
+
+    private void fillColumn(int[] rows, int k, int variable) {
+        for (int i = 0; i < k; i++) {
+            column[i] = statistics.getPosterior(rows[i], variable);
+        }
+        column[k] = statistics.getPosterior(variable, variable);
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= stride) {
+            return;
+        }
+        int newStride = Math.max(size, 2 * stride);
+        double[] newFactor = new double[newStride * newStride];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(factor, i * stride, newFactor, i * newStride, i + 1);
+        }
+        int[] newParents = new int[newStride];
+        System.arraycopy(parents, 0, newParents, 0, count);
+
+        factor = newFactor;
+        parents = newParents;
+        stride = newStride;
+        scratch = new double[newStride * newStride];
+        column = new double[newStride];
+        work = new double[newStride];
+    }
+
+    private double sumOfLogarithms(double[] matrix, int k) {
+        double sum = 0;
+        for (int i = 0; i < k; i++) {
+            double pivot = matrix[i * stride + i];
+            sum += Math.log(pivot * pivot);
+        }
+        return sum;
+    }
+
+    private static double logarithm(double squaredPivot) {
+        return squaredPivot > 0 ? Math.log(squaredPivot) : Double.NaN;
+    }
+
+    private static boolean contains(int[] array, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,197 @@
+package search;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the scores of the families (a child and its set of parents) computed during the search.
+ * The score is decomposable, so a family gets the same score whichever move asks for it, and the
+ * moves recalculated after every step mostly ask for families that have been scored before.
+ * <p>
+ * A family is identified by two longs: up to 64 nodes they are the bitset of the parents and the
+ * index of the child, above that two independent 64-bit hashes of the parents (the second one
+ * combined with the child). The entries are kept in primitive arrays of a fixed size, derived from
+ * the memory the cache may use. The table is split into sets of a few slots, a family can only be
+ * stored in its own set, and when the set is full the clock algorithm chooses the entry to evict:
+ * an entry that has been hit since the hand last passed it gets a second chance.
+ * <p>
+ * The keys of a family are computed into an array of the caller, and every set is guarded by a
+ * lock of its own, so the threads scoring at the same time rarely wait for each other.
+ */
+public class FamilyScoreCache {
+    private static final int WAYS = 8;
+    // two keys, the score and the reference bit
+    private static final int BYTES_PER_ENTRY = 8 + 8 + 8 + 1;
+
+    private final int numberOfNodes;
+    private final long[] keys1;
+    private final long[] keys2;
+    private final double[] scores;
+    private final boolean[] referenced;
+    private final byte[] hands;
+    private final int setMask;
+    private final Object[] locks;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param numberOfNodes the number of nodes of the network
+     * @param maxBytes      the memory the cache may use
+     */
+    public FamilyScoreCache(int numberOfNodes, long maxBytes) {
+        this.numberOfNodes = numberOfNodes;
+        long maxSets = Math.max(1, maxBytes / (WAYS * BYTES_PER_ENTRY + 1));
+        int numberOfSets = (int) Long.highestOneBit(Math.min(maxSets, Integer.MAX_VALUE / WAYS));
+        setMask = numberOfSets - 1;
+        keys1 = new long[numberOfSets * WAYS];
+        keys2 = new long[numberOfSets * WAYS];
+        scores = new double[numberOfSets * WAYS];
+        referenced = new boolean[numberOfSets * WAYS];
+        hands = new byte[numberOfSets];
+        locks = new Object[Math.min(numberOfSets, 1024)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        // no family has a child index of -1, so these mark the empty slots
+        Arrays.fill(keys2, -1);
+    }
+
+    /**
+     * computes the keys of the family, they are passed to {@link #get} and {@link #put}
+     *
+     * @param child         index of the child
+     * @param parents       indexes of the parents
+     * @param count         the number of parents
+     * @param key           the two keys are put here
+     * @param sortedParents array of at least count elements the parents are sorted in
+     */
+    public void getKey(int child, int[] parents, int count, long[] key, int[] sortedParents) {
+        if (numberOfNodes <= 64) {
+            long bitset = 0;
+            for (int i = 0; i < count; i++) {
+                bitset |= 1L << parents[i];
+            }
+            key[0] = bitset;
+            key[1] = child;
+            return;
+        }
+
+        System.arraycopy(parents, 0, sortedParents, 0, count);
+        Arrays.sort(sortedParents, 0, count);
+        long hash1 = 0x9E3779B97F4A7C15L;
+        long hash2 = 0xC2B2AE3D27D4EB4FL;
+        for (int i = 0; i < count; i++) {
+            hash1 = mix(hash1 ^ sortedParents[i]);
+            hash2 = mix(hash2 + sortedParents[i] * 0xFF51AFD7ED558CCDL);
+        }
+        key[0] = hash1;
+        // the child goes to the upper half, so a key can never be the -1 of the empty slots
+        key[1] = ((long) child << 32) | (hash2 >>> 32);
+    }
+
+    /**
+     * @return the score of the family with the given keys, or NaN if it is not in the cache
+     */
+    public double get(long[] key) {
+        long key1 = key[0];
+        long key2 = key[1];
+        int set = set(key1, key2);
+        int first = set * WAYS;
+        synchronized (locks[set % locks.length]) {
+            for (int slot = first; slot < first + WAYS; slot++) {
+                if (keys1[slot] == key1 && keys2[slot] == key2) {
+                    referenced[slot] = true;
+                    hits.increment();
+                    return scores[slot];
+                }
+            }
+        }
+        misses.increment();
+        return Double.NaN;
+    }
+
+    /**
+     * stores the score of the family with the given keys
+     */
+    public void put(long[] key, double score) {
+        long key1 = key[0];
+        long key2 = key[1];
+        int set = set(key1, key2);
+        int first = set * WAYS;
+        synchronized (locks[set % locks.length]) {
+            for (int slot = first; slot < first + WAYS; slot++) {
+                if (keys2[slot] == -1 || (keys1[slot] == key1 && keys2[slot] == key2)) {
+                    // another thread may have stored the family in the meantime
+                    store(slot, key1, key2, score);
+                    return;
+                }
+            }
+
+            int hand = hands[set];
+            while (referenced[first + hand]) {
+                referenced[first + hand] = false;
+                hand = (hand + 1) % WAYS;
+            }
+            store(first + hand, key1, key2, score);
+            hands[set] = (byte) ((hand + 1) % WAYS);
+        }
+        evictions.increment();
+    }
+
+    /**
+     * forgets every family, to be called before the cache is used with statistics of other data
+     */
+    public void clear() {
+        for (int set = 0; set <= setMask; set++) {
+            int first = set * WAYS;
+            synchronized (locks[set % locks.length]) {
+                Arrays.fill(keys2, first, first + WAYS, -1);
+                Arrays.fill(referenced, first, first + WAYS, false);
+                hands[set] = 0;
+            }
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    private void store(int slot, long key1, long key2, double score) {
+        keys1[slot] = key1;
+        keys2[slot] = key2;
+        scores[slot] = score;
+        referenced[slot] = false;
+    }
+
+    private int set(long key1, long key2) {
+        return (int) (mix(key1 ^ (key2 * 0x9E3779B97F4A7C15L)) >>> 32) & setMask;
+    }
+
+    private static long mix(long x) {
+        // finalizer of SplitMix64
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long misses = getMisses();
+        return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+    }
+
+    @Override
+    public String toString() {
+        return "Family score cache: " + getHits() + " hits, " + getMisses() + " misses (hit rate " + getHitRate() + "), "
+                + evictions.sum() + " evictions, " + scores.length + " entries.";
+    }
+}
@@ -1,22 +1,34 @@
 package search;
 
+import model.Edge;
 import model.Network;
+import model.Node;
 
 import java.time.LocalTime;
 import java.util.LinkedList;
+import java.util.function.LongPredicate;
 
 /**
  * Created by Benedek on 4/23/2016.
  */
 public class HillClimbing extends LocalSearching {
+    // the candidate moves ordered by their score
+    private MoveTable moveTable;
+    private final LongPredicate excludedMove = this::isExcludedMove;
+    private final double[] regularization = new double[MoveType.values().length];
+    // how the time of the steps is spent, in nanoseconds
+    private long maintainingTime;
+    private long scoringTime;
+    private long selectingTime;
+    private long numberOfScoredMoves;
 
     /**
      * constructor
      *
      * @param network network object that contains all the nodes and edges already set
      */
-    public HillClimbing(Network network, int numberOfLinesToUse, String fileName, int numberOfSteps, Double lambda) {
-        super(network, numberOfLinesToUse, fileName, numberOfSteps, lambda);
+    public HillClimbing(Network network, ScoreFunction scoreFunction, int numberOfSteps, Double lambda) {
+        super(network, scoreFunction, numberOfSteps, lambda);
     }
 
     /**
@@ -37,6 +49,9 @@ public class HillClimbing extends LocalSearching {
 
         long elapsedTime = System.nanoTime() - startTime;
         System.out.println("The algorithm took " + elapsedTime / 1000000000.0 + " seconds to finish, while making " + numberOfSteps + " steps.");
+        printStepStatistics(numberOfSteps);
+        scoreFunction.printCacheStatistics();
+        shutdownScoring();
     }
 
     /**
@@ -45,33 +60,38 @@ public class HillClimbing extends LocalSearching {
      * @return returns the score of the best move
      */
     public Double stepOne() {
-        Move bestMove = null;
         if (firstStep) {
             // if it's the first step, collect all possible moves
             firstStep = false;
-            possibleMoves = calculatePossibleMoves();
-            System.out.println("Number of possible moves to make: " + possibleMoves.size());
+            indexNodes();
+            moveTable = new MoveTable(nodesByIndex.length * nodesByIndex.length);
+            fillCandidateMoves(moveTable);
+            System.out.println("Number of possible moves to make: " + moveTable.size());
 
 
         } else {
-            maintainingPossibleMoves(lastMoves.getLast(), possibleMoves, true);
+            long startTime = System.nanoTime();
+            maintainingPossibleMoves(lastMoves.getLast(), moveTable);
+            maintainingTime += System.nanoTime() - startTime;
         }
-        if (possibleMoves.size() == 0) {
+        if (moveTable.size() == 0) {
             return null;
         }
-
-
-        for (Move m : possibleMoves) {
-            if (!lastMovesContain(lastMoves, m) && !moveWouldCauseMoreParents(m, maxNumberOfParents)) {
-                if (bestMove == null) {
-                    bestMove = m;
-                } else {
-                    if (m.getScore() > bestMove.getScore()) {
-                        bestMove = m;
-                    }
-                }
-            }
-        }
+        // only the moves the last step has changed need a new score, every score is known before the
+        // best move is chosen, so the choice is made the same way however many threads computed them
+        long startTime = System.nanoTime();
+        numberOfScoredMoves += moveTable.getNumberOfUnscoredMoves();
+        scoreMoves(moveTable);
+        scoringTime += System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        int numberOfEdges = network.getEdges().size();
+        regularization[MoveType.adding.ordinal()] = Move.getRegularization(MoveType.adding, numberOfEdges, lambda);
+        regularization[MoveType.deleting.ordinal()] = Move.getRegularization(MoveType.deleting, numberOfEdges, lambda);
+        regularization[MoveType.reversing.ordinal()] = Move.getRegularization(MoveType.reversing, numberOfEdges, lambda);
+        int best = moveTable.findBest(excludedMove, regularization);
+        Move bestMove = best < 0 ? null : getMove(best);
+        selectingTime += System.nanoTime() - startTime;
 
         if (bestMove == null || bestMove.getScore() < 0.0) {
             return 0.0;
@@ -97,5 +117,33 @@ public class HillClimbing extends LocalSearching {
         return bestMove.getScore();
     }
 
+    /**
+     * @return whether the move with the given key can not be chosen now: it is taboo, it would give
+     * a node too many parents, or it is not valid in the current network
+     */
+    private boolean isExcludedMove(long key) {
+        MoveType type = MoveTable.getType(key);
+        Node parent = nodesByIndex[MoveTable.getParent(key)];
+        Node child = nodesByIndex[MoveTable.getChild(key)];
+        return lastMovesContain(type, parent, child) || moveWouldCauseMoreParents(type, parent, child, maxNumberOfParents)
+                || isInvalidMove(type, parent, child);
+    }
+
+    /**
+     * @return the move of the table with the given id, with its score
+     */
+    private Move getMove(int id) {
+        long key = moveTable.getKeyOfMove(id);
+        Edge edge = new Edge(network, nodesByIndex[MoveTable.getParent(key)], nodesByIndex[MoveTable.getChild(key)]);
+        Move move = new Move(network, edge, MoveTable.getType(key), lambda, scoreFunction);
+        move.setScore(moveTable.getScore(id));
+        return move;
+    }
 
+    private void printStepStatistics(int numberOfSteps) {
+        long numberOfInvalidatedMoves = moveTable != null ? moveTable.getNumberOfInvalidatedMoves() : 0;
+        System.out.println("Invalidated " + numberOfInvalidatedMoves + " moves (" + numberOfInvalidatedMoves / (double) numberOfSteps
+                + " per step) and scored " + numberOfScoredMoves + " moves. Maintaining the moves took " + maintainingTime / 1000000000.0
+                + " seconds, scoring them " + scoringTime / 1000000000.0 + " seconds, choosing the best one " + selectingTime / 1000000000.0 + " seconds.");
+    }
 }
@@ -4,12 +4,13 @@ import model.Edge;
 import model.Network;
 import model.Node;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
-import static utils.GraphFunctions.containsEdge;
 
 /**
  * Created by bfabian on 2016. 10. 03..
@@ -20,45 +21,51 @@ public abstract class LocalSearching {
     protected int maxNumberOfParents = 10;
     protected LinkedList<Move> lastMoves;
     protected int maxSize = 3;
-    protected BayesianScoring bayesianScoring;
+    protected ScoreFunction scoreFunction;
     protected int maxNumberOfSteps = 100000;
     protected boolean firstStep = true;
     protected Double lambda = 0.2;
-
-    public LocalSearching(Network network, int numberOfLinesToUse, String fileName, int numberOfSteps, Double lambda) {
+    protected int numberOfThreads = 1;
+    // the nodes of the network by their index
+    protected Node[] nodesByIndex;
+    private ExecutorService executor;
+    private List<Callable<Void>> shares;
+
+    // the moves of the table being scored: the adding and deleting moves of the children that have
+    // at least two of them, by child, each child being one batch, and the rest of the moves
+    private MoveTable scoringTable;
+    private int[] movesOfBatches = new int[0];
+    private int[] batchStarts = new int[0];
+    private int numberOfBatches;
+    private int[] singleMoves = new int[0];
+    private int numberOfSingleMoves;
+    private int[] positionsOfChildren = new int[0];
+    // the arrays calculateScoresOfParentChanges fills, for every thread scoring
+    private final ThreadLocal<double[][]> parentChangeScores =
+            ThreadLocal.withInitial(() -> new double[2][scoreFunction.size()]);
+
+    public LocalSearching(Network network, ScoreFunction scoreFunction, int numberOfSteps, Double lambda) {
         this.network = network;
         this.lambda = lambda;
-        bayesianScoring = BayesianScoring.getInstance();
-        bayesianScoring.setFileName(fileName);
-        bayesianScoring.setNumberOfLinesToUse(numberOfLinesToUse);
-        bayesianScoring.initializeValues();
-        bayesianScoring.setLambda(lambda);
+        this.scoreFunction = scoreFunction;
         maxNumberOfSteps = numberOfSteps;
         possibleMoves = new HashSet<>();
     }
 
     public abstract void doSearch();
 
-    protected void deleteInvalidMoves(Set<Move> possibleMoves) {
-        Iterator<Move> iterator = possibleMoves.iterator();
-
-        while (iterator.hasNext()) {
-            Move move = iterator.next();
-            if (move.getType() == MoveType.adding) {
-                if (network.violatesDAG(move.getEdge().getParent(), move.getEdge().getChild())
-                        || containsEdge(network.getEdges(), move.getEdge().getParent(), move.getEdge().getChild())) {
-                    iterator.remove();
-                }
-            } else if (move.getType() == MoveType.reversing) {
-                if (network.reversingViolatesDAG(move.getEdge().getParent(), move.getEdge().getChild())
-                        || !containsEdge(network.getEdges(), move.getEdge().getParent(), move.getEdge().getChild())) {
-                    iterator.remove();
-                }
-            } else {
-                if (!containsEdge(network.getEdges(), move.getEdge().getParent(), move.getEdge().getChild())) {
-                    iterator.remove();
-                }
-            }
+    /**
+     * @return whether the move can not be made in the current network: the edge to add is there
+     * already or would close a cycle, the edge to delete or reverse is not there, or the reversed
+     * edge would close a cycle
+     */
+    protected boolean isInvalidMove(MoveType type, Node parent, Node child) {
+        if (type == MoveType.adding) {
+            return child.getParents().contains(parent) || network.violatesDAG(parent, child);
+        } else if (type == MoveType.reversing) {
+            return !child.getParents().contains(parent) || network.reversingViolatesDAG(parent, child);
+        } else {
+            return !child.getParents().contains(parent);
         }
     }
 
@@ -77,6 +84,152 @@ public abstract class LocalSearching {
         }
     }
 
+    /**
+     * @param numberOfThreads the number of threads scoring the moves, 1 scores them on the thread of the search
+     */
+    public void setNumberOfThreads(int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+    }
+
+    /**
+     * fills nodesByIndex from the network
+     */
+    protected void indexNodes() {
+        nodesByIndex = new Node[network.size()];
+        for (Node node : network.getNodes()) {
+            nodesByIndex[node.getIndex()] = node;
+        }
+    }
+
+    /**
+     * calculates the scores of the moves of the table that have none, and puts them into its heaps:
+     * the adding and deleting moves are grouped by their child, so the moves into the same child are
+     * scored in one batch from its factorization, the rest are scored one by one. With more than one
+     * thread the batches and the moves are shared out among the threads, and this returns when all
+     * of them are scored.
+     *
+     * @param table the moves to score
+     */
+    protected void scoreMoves(MoveTable table) {
+        groupUnscoredMoves(table);
+        if (numberOfThreads == 1 || numberOfBatches + numberOfSingleMoves < 2) {
+            scoreShare(0, 1);
+        } else {
+            if (executor == null) {
+                executor = new ForkJoinPool(numberOfThreads);
+                // more shares than threads, so a thread that is done early can take another one
+                int numberOfShares = 4 * numberOfThreads;
+                shares = new ArrayList<>();
+                for (int i = 0; i < numberOfShares; i++) {
+                    int share = i;
+                    shares.add(() -> {
+                        scoreShare(share, numberOfShares);
+                        return null;
+                    });
+                }
+            }
+            try {
+                for (Future<Void> future : executor.invokeAll(shares)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Scoring the moves failed", e.getCause());
+            }
+        }
+        table.update();
+        scoringTable = null;
+    }
+
+    /**
+     * sorts the unscored moves of the table into batches by their child with a counting sort
+     */
+    private void groupUnscoredMoves(MoveTable table) {
+        scoringTable = table;
+        int n = nodesByIndex.length;
+        int numberOfMoves = table.getNumberOfUnscoredMoves();
+        if (positionsOfChildren.length < n) {
+            positionsOfChildren = new int[n];
+            batchStarts = new int[n + 1];
+        }
+        if (movesOfBatches.length < numberOfMoves) {
+            movesOfBatches = new int[numberOfMoves];
+            singleMoves = new int[numberOfMoves];
+        }
+
+        Arrays.fill(positionsOfChildren, 0, n, 0);
+        for (int i = 0; i < numberOfMoves; i++) {
+            long key = table.getKeyOfMove(table.getUnscoredMove(i));
+            if (MoveTable.getType(key) != MoveType.reversing) {
+                positionsOfChildren[MoveTable.getChild(key)]++;
+            }
+        }
+        numberOfBatches = 0;
+        int offset = 0;
+        for (int child = 0; child < n; child++) {
+            int count = positionsOfChildren[child];
+            if (count < 2) {
+                positionsOfChildren[child] = -1;
+            } else {
+                batchStarts[numberOfBatches++] = offset;
+                positionsOfChildren[child] = offset;
+                offset += count;
+            }
+        }
+        batchStarts[numberOfBatches] = offset;
+
+        numberOfSingleMoves = 0;
+        for (int i = 0; i < numberOfMoves; i++) {
+            int id = table.getUnscoredMove(i);
+            long key = table.getKeyOfMove(id);
+            int child = MoveTable.getChild(key);
+            if (MoveTable.getType(key) == MoveType.reversing || positionsOfChildren[child] < 0) {
+                singleMoves[numberOfSingleMoves++] = id;
+            } else {
+                movesOfBatches[positionsOfChildren[child]++] = id;
+            }
+        }
+    }
+
+    /**
+     * scores every numberOfShares-th batch and move, starting from the given one
+     */
+    private void scoreShare(int share, int numberOfShares) {
+        MoveTable table = scoringTable;
+        double[][] scores = parentChangeScores.get();
+        double[] additions = scores[0];
+        double[] deletions = scores[1];
+        for (int batch = share; batch < numberOfBatches; batch += numberOfShares) {
+            int start = batchStarts[batch];
+            int child = MoveTable.getChild(table.getKeyOfMove(movesOfBatches[start]));
+            scoreFunction.calculateScoresOfParentChanges(nodesByIndex[child], additions, deletions);
+            for (int i = start; i < batchStarts[batch + 1]; i++) {
+                int id = movesOfBatches[i];
+                long key = table.getKeyOfMove(id);
+                int parent = scoreFunction.getIndexOfNode(nodesByIndex[MoveTable.getParent(key)]);
+                table.setScore(id, MoveTable.getType(key) == MoveType.adding ? additions[parent] : deletions[parent]);
+            }
+        }
+        for (int i = share; i < numberOfSingleMoves; i += numberOfShares) {
+            int id = singleMoves[i];
+            long key = table.getKeyOfMove(id);
+            table.setScore(id, scoreFunction.calculateScoreOfMove(MoveTable.getType(key),
+                    nodesByIndex[MoveTable.getParent(key)], nodesByIndex[MoveTable.getChild(key)]));
+        }
+    }
+
+    /**
+     * stops the threads scoring the moves, if there are any
+     */
+    protected void shutdownScoring() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+            shares = null;
+        }
+    }
+
     /**
      * finds all possible moves to be made
      *
@@ -87,17 +240,15 @@ public abstract class LocalSearching {
 
         Set<Edge> possibleEdges = calculatePossibleEdges();
         for (Edge e : possibleEdges) {
-            moves.add(new Move(network, e, MoveType.adding, lambda));
+            moves.add(new Move(network, e, MoveType.adding, lambda, scoreFunction));
         }
         for (Edge e : network.getEdges()) {
-            moves.add(new Move(network, e, MoveType.deleting, lambda));
+            moves.add(new Move(network, e, MoveType.deleting, lambda, scoreFunction));
         }
 
-        // to dodge ConcurrentModificationExceptions
-        Set<Edge> tempEdges = new HashSet<>(network.getEdges());
-        for (Edge e : tempEdges) {
+        for (Edge e : network.getEdges()) {
             if (!network.reversingViolatesDAG(e.getParent(), e.getChild())) {
-                moves.add(new Move(network, e, MoveType.reversing, lambda));
+                moves.add(new Move(network, e, MoveType.reversing, lambda, scoreFunction));
             }
         }
 
@@ -114,7 +265,7 @@ public abstract class LocalSearching {
         for (Node parent : network.getNodes()) {
             for (Node child : network.getNodes()) {
                 if (parent != child && child.getParents().size() < maxNumberOfParents &&
-                        !containsEdge(network.getEdges(), parent, child) && !network.violatesDAG(parent, child)) {
+                        !network.containsEdge(parent, child) && !network.violatesDAG(parent, child)) {
                     possibleEdges.add(new Edge(network, parent, child));
                 }
             }
@@ -122,231 +273,90 @@ public abstract class LocalSearching {
         return possibleEdges;
     }
 
-    protected Move findBestMove(Set<Move> possibleMoves, Set<Move> movesToRecalculate) {
-        Move bestMove;
-
-        Move bestOldMove = null;
-        for (Move m : possibleMoves) {
-            if (!lastMovesContain(lastMoves, m)) {
-                if (bestOldMove == null) {
-                    bestOldMove = m;
-                } else {
-                    if (m.getScore() > bestOldMove.getScore()) {
-                        bestOldMove = m;
-                    }
-                }
+    /**
+     * a move is taboo if one of the last moves has added or deleted the same edge, or has been the
+     * same move, or has reversed the opposite edge
+     */
+    protected boolean lastMovesContain(MoveType type, Node parent, Node child) {
+        for (Move lastMove : lastMoves) {
+            Node lastParent = lastMove.getEdge().getParent();
+            Node lastChild = lastMove.getEdge().getChild();
+            if (lastParent.equals(parent) && lastChild.equals(child)
+                    && (lastMove.getType() == type || lastMove.getType() != MoveType.reversing)) {
+                return true;
+            }
+            if (lastMove.getType() == MoveType.reversing && lastParent.equals(child) && lastChild.equals(parent)) {
+                return true;
             }
         }
+        return false;
+    }
 
-        Move bestNewMove = null;
-        for (Move m : movesToRecalculate) {
-            if (!lastMovesContain(lastMoves, m)) {
-                if (bestNewMove == null) {
-                    bestNewMove = m;
-                } else {
-                    if (m.getScore() > bestNewMove.getScore()) {
-                        bestNewMove = m;
-                    }
+    /**
+     * puts every move that may become possible during the search into the table: adding each edge
+     * the network does not have, deleting and reversing each one it has. Whether a move would close
+     * a cycle or give a node too many parents is only checked when it is about to be chosen.
+     *
+     * @param table the table of the candidate moves
+     */
+    protected void fillCandidateMoves(MoveTable table) {
+        for (Node parent : nodesByIndex) {
+            for (Node child : nodesByIndex) {
+                if (parent != child && !child.getParents().contains(parent)) {
+                    table.add(parent.getIndex(), child.getIndex(), MoveType.adding);
                 }
             }
         }
-
-        if (bestNewMove == null) {
-            bestMove = bestOldMove;
-        } else if (bestOldMove == null) {
-            bestMove = bestNewMove;
-        } else {
-            bestMove = bestNewMove.getScore() > bestOldMove.getScore() ? bestNewMove : bestOldMove;
+        for (Edge e : network.getEdges()) {
+            table.add(e.getParent().getIndex(), e.getChild().getIndex(), MoveType.deleting);
+            table.add(e.getParent().getIndex(), e.getChild().getIndex(), MoveType.reversing);
         }
-
-        return bestMove;
     }
 
-    protected boolean lastMovesContain(LinkedList<Move> lastMoves, Move m) {
-        if (lastMoves.contains(m)) return true;
-        if (lastMoves.contains(new Move(network, m.getEdge(), MoveType.deleting, lambda)) ||
-                lastMoves.contains(new Move(network, m.getEdge(), MoveType.adding, lambda)) ||
-                lastMoves.contains(new Move(network, m.getEdge().getReverse(), MoveType.reversing, lambda))) {
-            return true;
-        }
-
-        return false;
-    }
+    /**
+     * brings the candidate moves up to date after a move has been made: the moves of the edge that
+     * has been changed are replaced, and the scores of the moves that depend on the families the move
+     * has changed are reset - the family of the child, and of the parent as well for a reversal
+     *
+     * @param lastMove the move that has been made
+     * @param table    the table of the candidate moves
+     * @return the number of moves whose score has been reset
+     */
+    protected int maintainingPossibleMoves(Move lastMove, MoveTable table) {
+        int parent = lastMove.getEdge().getParent().getIndex();
+        int child = lastMove.getEdge().getChild().getIndex();
+        int n = nodesByIndex.length;
 
-    protected void maintainingPossibleMoves(Move lastMove, Set<Move> possibleMoves, boolean needToRecalculate) {
-        Set<Move> newPossibleMoves = new HashSet<>();
         if (lastMove.getType() == MoveType.adding) {
-            // deleting
-            possibleMoves.remove(lastMove);
-
-            Set<Node> descendants = lastMove.getEdge().getChild().getDescendants();
-            Set<Node> ancestors = lastMove.getEdge().getParent().getAncestors();
-            descendants.add(lastMove.getEdge().getChild());
-            ancestors.add(lastMove.getEdge().getParent());
-
-            for (Node parent : ancestors) {
-                for (Node child : descendants) {
-                    if (network.violatesDAG(child, parent)) {
-                        possibleMoves.remove(new Move(network, new Edge(network, child, parent), MoveType.adding, lambda));
-                    }
-                    if (network.reversingViolatesDAG(parent, child)) {
-                        possibleMoves.remove(new Move(network, new Edge(network, parent, child), MoveType.reversing, lambda));
-                    }
-                }
-            }
-
-            // adding
-            newPossibleMoves.add(new Move(network,
-                    new Edge(network, lastMove.getEdge().getParent(), lastMove.getEdge().getChild()),
-                    MoveType.deleting, lambda));
-            if (!network.reversingViolatesDAG(lastMove.getEdge().getParent(), lastMove.getEdge().getChild())) {
-                newPossibleMoves.add(new Move(network,
-                        new Edge(network, lastMove.getEdge().getParent(), lastMove.getEdge().getChild()),
-                        MoveType.reversing, lambda));
-            }
-            // finding moves to be calculated
-            for (Move move : possibleMoves) {
-                if (move.getType() == MoveType.reversing) {
-                    if (move.getEdge().getParent() == lastMove.getEdge().getChild()) {
-                        newPossibleMoves.add(move);
-                    }
-                } else {
-                    if (move.getEdge().getChild() == lastMove.getEdge().getChild()) {
-                        newPossibleMoves.add(move);
-                    }
-                }
-            }
-
+            table.remove(parent, child, MoveType.adding);
+            table.add(parent, child, MoveType.deleting);
+            table.add(parent, child, MoveType.reversing);
+            return table.invalidate(child, n);
         } else if (lastMove.getType() == MoveType.deleting) {
-            // deleting
-            possibleMoves.remove(lastMove);
-            possibleMoves.remove(new Move(network, lastMove.getEdge(), MoveType.reversing, lambda));
-
-            // adding
-            Set<Node> descendants = lastMove.getEdge().getChild().getDescendants();
-            Set<Node> ancestors = lastMove.getEdge().getParent().getAncestors();
-            descendants.add(lastMove.getEdge().getChild());
-            ancestors.add(lastMove.getEdge().getParent());
-
-            for (Node parent : ancestors) {
-                for (Node child : descendants) {
-                    if (parent != child && !network.violatesDAG(child, parent)) {
-                        newPossibleMoves.add(new Move(network, new Edge(network, child, parent), MoveType.adding, lambda));
-                    }
-
-                    if (containsEdge(network.getEdges(), parent, child) && !network.reversingViolatesDAG(parent, child)) {
-                        newPossibleMoves.add(new Move(network, new Edge(network, parent, child), MoveType.reversing, lambda));
-                    }
-                }
-            }
-
-            newPossibleMoves.add(new Move(network, new Edge(network, lastMove.getEdge().getParent(), lastMove.getEdge().getChild()), MoveType.adding, lambda));
-
-            // finding moves to be calculated
-            for (Move move : possibleMoves) {
-                if (move.getType() == MoveType.reversing) {
-                    if (move.getEdge().getParent() == lastMove.getEdge().getChild()) {
-                        newPossibleMoves.add(move);
-                    }
-                } else {
-                    if (move.getEdge().getChild() == lastMove.getEdge().getChild()) {
-                        newPossibleMoves.add(move);
-                    }
-                }
-            }
-
-        } else {
-            // deleting
-            possibleMoves.remove(lastMove);
-            possibleMoves.remove(new Move(network, lastMove.getEdge(), MoveType.deleting, lambda));
-
-            // here the child and the parent roles are reversed
-            Set<Node> newDescendants = lastMove.getEdge().getParent().getDescendants();
-            Set<Node> newAncestors = lastMove.getEdge().getChild().getAncestors();
-            newDescendants.add(lastMove.getEdge().getParent());
-            newAncestors.add(lastMove.getEdge().getChild());
-
-            for (Node parent : newAncestors) {
-                for (Node child : newDescendants) {
-                    possibleMoves.remove(new Move(network, new Edge(network, child, parent), MoveType.adding, lambda));
-                    if (network.reversingViolatesDAG(parent, child)) {
-                        possibleMoves.remove(new Move(network, new Edge(network, parent, child), MoveType.reversing, lambda));
-                    }
-                }
-            }
-
-            // adding
-            newPossibleMoves.add(new Move(network, lastMove.getEdge().getReverse(), MoveType.deleting, lambda));
-
-            Set<Node> descendants = lastMove.getEdge().getChild().getDescendants();
-            Set<Node> ancestors = lastMove.getEdge().getParent().getAncestors();
-            descendants.add(lastMove.getEdge().getChild());
-            ancestors.add(lastMove.getEdge().getParent());
-
-            for (Node parent : ancestors) {
-                for (Node child : descendants) {
-                    if (parent != child && !containsEdge(network.getEdges(), child, parent) && !network.violatesDAG(child, parent)) {
-                        newPossibleMoves.add(new Move(network, new Edge(network, child, parent), MoveType.adding, lambda));
-                    }
-
-                    //if (containsEdge(network.getEdges(), child, parent) && !network.reversingViolatesDAG(child, parent)) {
-                    //    newPossibleMoves.add(new Move(network, new Edge(network, child, parent), MoveType.reversing, lambda));
-                    //}
-                    if (containsEdge(network.getEdges(), parent, child) && !network.reversingViolatesDAG(parent, child)) {
-                        newPossibleMoves.add(new Move(network, new Edge(network, parent, child), MoveType.reversing, lambda));
-                    }
-
-                }
-            }
-
-            Set<Edge> tempEdges = new HashSet<>(network.getEdges());
-            for (Edge edge : tempEdges) {
-                if (edge.getChild() == lastMove.getEdge().getChild()
-                        || edge.getParent() == lastMove.getEdge().getParent()) {
-                    if (!network.reversingViolatesDAG(edge.getParent(), edge.getChild())) {
-                        newPossibleMoves.add(new Move(network, edge, MoveType.reversing, lambda));
-                    }
-                }
-            }
-
-            // finding moves to be calculated
-            for (Move move : possibleMoves) {
-                if (move.getType() == MoveType.reversing) {
-                    if (move.getEdge().getParent() == lastMove.getEdge().getChild()
-                            || move.getEdge().getParent() == lastMove.getEdge().getParent()) {
-                        newPossibleMoves.add(move);
-                    }
-                } else {
-                    if (move.getEdge().getChild() == lastMove.getEdge().getChild()
-                            || move.getEdge().getChild() == lastMove.getEdge().getParent()) {
-                        newPossibleMoves.add(move);
-                    }
-                }
-            }
-
-        }
-
-        if (needToRecalculate) {
-            for (Move move : newPossibleMoves) {
-                move.setScoreToNull();
-            }
-            possibleMoves.removeAll(newPossibleMoves);
-            possibleMoves.addAll(newPossibleMoves);
+            table.remove(parent, child, MoveType.deleting);
+            table.remove(parent, child, MoveType.reversing);
+            table.add(parent, child, MoveType.adding);
+            return table.invalidate(child, n);
         } else {
-            possibleMoves.removeAll(newPossibleMoves);
-            possibleMoves.addAll(newPossibleMoves);
+            table.remove(parent, child, MoveType.deleting);
+            table.remove(parent, child, MoveType.reversing);
+            table.remove(child, parent, MoveType.adding);
+            table.add(parent, child, MoveType.adding);
+            table.add(child, parent, MoveType.deleting);
+            table.add(child, parent, MoveType.reversing);
+            return table.invalidate(child, n) + table.invalidate(parent, n);
         }
     }
 
-    protected boolean moveWouldCauseMoreParents(Move nextMove, int maxNumberOfParents) {
-        switch (nextMove.getType()) {
+    protected boolean moveWouldCauseMoreParents(MoveType type, Node parent, Node child, int maxNumberOfParents) {
+        switch (type) {
             case adding:
-                if (nextMove.getEdge().getChild().getParents().size() >= maxNumberOfParents) {
+                if (child.getParents().size() >= maxNumberOfParents) {
                     return true;
                 }
                 break;
             case reversing:
-                if (nextMove.getEdge().getParent().getParents().size() >= maxNumberOfParents) {
+                if (parent.getParents().size() >= maxNumberOfParents) {
                     return true;
                 }
                 break;
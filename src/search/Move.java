@@ -14,29 +14,45 @@ public class Move implements Comparable {
     private Double score = null;
     private Network network;
     private MoveType type;
+    private final ScoreFunction scoreFunction;
 
-    Move(Network myNetwork, Edge edge, MoveType add, Double lambda) {
+    Move(Network myNetwork, Edge edge, MoveType add, Double lambda, ScoreFunction scoreFunction) {
         network = myNetwork;
         this.edge = edge;
         this.type = add;
         this.lambda = lambda;
+        this.scoreFunction = scoreFunction;
     }
 
     public void setScoreToNull() {
         this.score = null;
     }
 
+    /**
+     * sets the score calculated together with the other moves of the same child
+     */
+    void setScore(Double score) {
+        this.score = score;
+    }
+
     double getScore() {
         if (score == null) {
             score = calculateScore();
         }
-        Double regularization = 0.0;
+        return score - getRegularization(type, network.getEdges().size(), lambda);
+    }
+
+    /**
+     * @return the penalty a move of the given type gets in a network of the given number of edges,
+     * it is the same for all the moves of a type
+     */
+    static double getRegularization(MoveType type, int numberOfEdges, Double lambda) {
         if (type == MoveType.adding) {
-            regularization = lambda * (Math.pow(network.getEdges().size() + 1, 2) - Math.pow(network.getEdges().size(), 2));
+            return lambda * (Math.pow(numberOfEdges + 1, 2) - Math.pow(numberOfEdges, 2));
         } else if (type == MoveType.deleting) {
-            regularization = lambda * (Math.pow(network.getEdges().size() - 1, 2) - Math.pow(network.getEdges().size(), 2));
+            return lambda * (Math.pow(numberOfEdges - 1, 2) - Math.pow(numberOfEdges, 2));
         }
-        return score - regularization;
+        return 0.0;
     }
 
     /**
@@ -45,12 +61,7 @@ public class Move implements Comparable {
      * @return score of the move
      */
     double calculateScore() {
-        BayesianScoring bayesianScoring = BayesianScoring.getInstance();
-        bayesianScoring.setMove(this);
-        bayesianScoring.setNetwork(network);
-
-
-        double calculatedScore = bayesianScoring.calculateScoreOfMove();
+        double calculatedScore = scoreFunction.calculateScoreOfMove(type, edge.getParent(), edge.getChild());
         score = calculatedScore;
         return calculatedScore;
     }
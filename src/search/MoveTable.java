@@ -0,0 +1,437 @@
+package search;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * The candidate moves of the hill climbing in primitive arrays, instead of a set of Move objects.
+ * A move is a long key made of the indexes of the two nodes of its edge and its type, and it gets
+ * an int id that stays the same while it is in the table; the key, the score and the position of
+ * the move are kept in arrays by this id. An open-addressing hash table finds the id of a key.
+ * <p>
+ * The scored moves are in one indexed max-heap of ids for every type, ordered by the score without
+ * the regularization, which only depends on the type and the number of edges. A move whose score is
+ * reset waits among the unscored moves until it gets a score again, then goes back into its heap.
+ * The score of a move only depends on the families it changes: the family of the child for adding
+ * and deleting an edge, the families of both ends for reversing it, so {@link #invalidate} finds the
+ * moves that depend on a family by looking up their keys. Nothing is allocated after the arrays have
+ * grown to the number of moves.
+ */
+class MoveTable {
+    private static final MoveType[] TYPES = MoveType.values();
+    // no move has this key: the index of its parent would be -1
+    private static final long EMPTY = -1;
+    private static final int FREE = -1;
+
+    // open addressing with linear probing, from the key of a move to its id
+    private long[] slotKeys;
+    private int[] slotIds;
+    private int slotMask;
+
+    // by the id of the move
+    private long[] keys;
+    private double[] scores;
+    // the position of the move in the heap of its type, or -(position among the unscored moves) - 2,
+    // or FREE if the id is not used
+    private int[] positions;
+    private int[] freeIds;
+    private int numberOfFreeIds;
+    private int numberOfIds;
+    private int size;
+
+    private int[] unscoredMoves;
+    private int numberOfUnscoredMoves;
+
+    private final int[][] heaps = new int[TYPES.length][];
+    private final int[] heapSizes = new int[TYPES.length];
+    // the positions of a heap visited while looking for the best move, in a heap of their own
+    private int[] candidates = new int[16];
+
+    private long numberOfInvalidatedMoves;
+
+    /**
+     * @param expectedSize the number of moves the arrays are made for at first
+     */
+    MoveTable(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        keys = new long[capacity];
+        scores = new double[capacity];
+        positions = new int[capacity];
+        freeIds = new int[capacity];
+        unscoredMoves = new int[capacity];
+        for (int type = 0; type < TYPES.length; type++) {
+            heaps[type] = new int[capacity];
+        }
+        int slots = Integer.highestOneBit(2 * capacity - 1) << 1;
+        slotKeys = new long[slots];
+        slotIds = new int[slots];
+        slotMask = slots - 1;
+        Arrays.fill(slotKeys, EMPTY);
+    }
+
+    static long getKey(int parent, int child, MoveType type) {
+        return ((long) parent << 32) | ((long) child << 2) | type.ordinal();
+    }
+
+    static int getParent(long key) {
+        return (int) (key >>> 32);
+    }
+
+    static int getChild(long key) {
+        return (int) (key >>> 2) & 0x3FFFFFFF;
+    }
+
+    static MoveType getType(long key) {
+        return TYPES[(int) key & 3];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * adds the move without a score, unless it is in the table already
+     *
+     * @return whether the move has been added
+     */
+    boolean add(int parent, int child, MoveType type) {
+        long key = getKey(parent, child, type);
+        if (find(key) >= 0) {
+            return false;
+        }
+        if (numberOfFreeIds == 0 && numberOfIds == keys.length) {
+            grow();
+        }
+        int id = numberOfFreeIds > 0 ? freeIds[--numberOfFreeIds] : numberOfIds++;
+        keys[id] = key;
+        scores[id] = Double.NaN;
+        insertSlot(key, id);
+        addUnscored(id);
+        size++;
+        return true;
+    }
+
+    /**
+     * @return whether the move was in the table
+     */
+    boolean remove(int parent, int child, MoveType type) {
+        long key = getKey(parent, child, type);
+        int id = find(key);
+        if (id < 0) {
+            return false;
+        }
+        removeSlot(key);
+        if (positions[id] >= 0) {
+            removeFromHeap((int) key & 3, positions[id]);
+        } else {
+            removeUnscored(id);
+        }
+        positions[id] = FREE;
+        freeIds[numberOfFreeIds++] = id;
+        size--;
+        return true;
+    }
+
+    /**
+     * resets the scores of the moves that depend on the family of the node, after its parents have changed
+     *
+     * @param node          index of the node
+     * @param numberOfNodes the number of nodes, the indexes are below it
+     * @return the number of moves whose score has been reset
+     */
+    int invalidate(int node, int numberOfNodes) {
+        int count = 0;
+        for (int other = 0; other < numberOfNodes; other++) {
+            if (other != node) {
+                count += reset(getKey(other, node, MoveType.adding));
+                count += reset(getKey(other, node, MoveType.deleting));
+                count += reset(getKey(other, node, MoveType.reversing));
+                count += reset(getKey(node, other, MoveType.reversing));
+            }
+        }
+        numberOfInvalidatedMoves += count;
+        return count;
+    }
+
+    private int reset(long key) {
+        int id = find(key);
+        if (id < 0 || positions[id] < 0) {
+            return 0;
+        }
+        removeFromHeap((int) key & 3, positions[id]);
+        scores[id] = Double.NaN;
+        addUnscored(id);
+        return 1;
+    }
+
+    /**
+     * @return the number of moves whose score has been reset since the table was created
+     */
+    long getNumberOfInvalidatedMoves() {
+        return numberOfInvalidatedMoves;
+    }
+
+    int getNumberOfUnscoredMoves() {
+        return numberOfUnscoredMoves;
+    }
+
+    /**
+     * @return the id of the i-th move without a score
+     */
+    int getUnscoredMove(int i) {
+        return unscoredMoves[i];
+    }
+
+    long getKeyOfMove(int id) {
+        return keys[id];
+    }
+
+    double getScore(int id) {
+        return scores[id];
+    }
+
+    /**
+     * sets the score of a move without one, different threads may set the scores of different moves
+     */
+    void setScore(int id, double score) {
+        scores[id] = score;
+    }
+
+    /**
+     * puts the moves that have got their scores into the heaps
+     */
+    void update() {
+        for (int i = 0; i < numberOfUnscoredMoves; i++) {
+            int id = unscoredMoves[i];
+            addToHeap((int) keys[id] & 3, id);
+        }
+        numberOfUnscoredMoves = 0;
+    }
+
+    /**
+     * finds the best move of the table, including the regularization, without removing it
+     *
+     * @param excluded       tells by the key whether a move can not be made now, these are skipped
+     * @param regularization the regularization of the moves of each type, by the ordinal of the type
+     * @return the id of the best move that is not excluded, or -1 if there is none
+     */
+    int findBest(LongPredicate excluded, double[] regularization) {
+        int bestId = -1;
+        double bestScore = 0;
+        for (int type = 0; type < TYPES.length; type++) {
+            int id = findBest(type, excluded);
+            if (id >= 0 && (bestId < 0 || scores[id] - regularization[type] > bestScore)) {
+                bestId = id;
+                bestScore = scores[id] - regularization[type];
+            }
+        }
+        return bestId;
+    }
+
+    /**
+     * visits the heap from the top, best first, and stops at the first move that is not excluded,
+     * so only the excluded moves better than it are looked at
+     */
+    private int findBest(int type, LongPredicate excluded) {
+        int[] heap = heaps[type];
+        int heapSize = heapSizes[type];
+        if (heapSize == 0) {
+            return -1;
+        }
+        int numberOfCandidates = 0;
+        int position = 0;
+        while (excluded.test(keys[heap[position]])) {
+            for (int child = 2 * position + 1; child <= 2 * position + 2 && child < heapSize; child++) {
+                if (numberOfCandidates == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, 2 * numberOfCandidates);
+                }
+                // sift the new candidate up in the heap of the candidates
+                int i = numberOfCandidates++;
+                while (i > 0 && above(heap[child], heap[candidates[(i - 1) / 2]])) {
+                    candidates[i] = candidates[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                candidates[i] = child;
+            }
+            if (numberOfCandidates == 0) {
+                return -1;
+            }
+            position = candidates[0];
+            // the last candidate takes the place of the first one and sifts down
+            int last = candidates[--numberOfCandidates];
+            int i = 0;
+            while (true) {
+                int best = last;
+                int bestIndex = -1;
+                for (int child = 2 * i + 1; child <= 2 * i + 2 && child < numberOfCandidates; child++) {
+                    if (above(heap[candidates[child]], heap[best])) {
+                        best = candidates[child];
+                        bestIndex = child;
+                    }
+                }
+                if (bestIndex < 0) {
+                    break;
+                }
+                candidates[i] = best;
+                i = bestIndex;
+            }
+            candidates[i] = last;
+        }
+        return heap[position];
+    }
+
+    private void addToHeap(int type, int id) {
+        int[] heap = heaps[type];
+        int position = heapSizes[type]++;
+        heap[position] = id;
+        positions[id] = position;
+        siftUp(heap, position);
+    }
+
+    private void removeFromHeap(int type, int position) {
+        int[] heap = heaps[type];
+        int last = heap[--heapSizes[type]];
+        if (position < heapSizes[type]) {
+            // the last move fills the gap, then it goes up or down to its place
+            heap[position] = last;
+            positions[last] = position;
+            siftUp(heap, position);
+            siftDown(heap, heapSizes[type], positions[last]);
+        }
+    }
+
+    private void siftUp(int[] heap, int position) {
+        int id = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!above(id, heap[parent])) {
+                break;
+            }
+            heap[position] = heap[parent];
+            positions[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = id;
+        positions[id] = position;
+    }
+
+    private void siftDown(int[] heap, int heapSize, int position) {
+        int id = heap[position];
+        while (true) {
+            int best = id;
+            int bestPosition = -1;
+            for (int child = 2 * position + 1; child <= 2 * position + 2 && child < heapSize; child++) {
+                if (above(heap[child], best)) {
+                    best = heap[child];
+                    bestPosition = child;
+                }
+            }
+            if (bestPosition < 0) {
+                break;
+            }
+            heap[position] = best;
+            positions[best] = position;
+            position = bestPosition;
+        }
+        heap[position] = id;
+        positions[id] = position;
+    }
+
+    /**
+     * @return whether the move a should be closer to the top than the move b: a move that can not be
+     * scored is never better, and moves of the same score are ordered by their keys
+     */
+    private boolean above(int a, int b) {
+        double scoreA = Double.isNaN(scores[a]) ? Double.NEGATIVE_INFINITY : scores[a];
+        double scoreB = Double.isNaN(scores[b]) ? Double.NEGATIVE_INFINITY : scores[b];
+        if (scoreA != scoreB) {
+            return scoreA > scoreB;
+        }
+        return keys[a] < keys[b];
+    }
+
+    private void addUnscored(int id) {
+        positions[id] = -numberOfUnscoredMoves - 2;
+        unscoredMoves[numberOfUnscoredMoves++] = id;
+    }
+
+    private void removeUnscored(int id) {
+        int index = -positions[id] - 2;
+        int last = unscoredMoves[--numberOfUnscoredMoves];
+        unscoredMoves[index] = last;
+        positions[last] = -index - 2;
+    }
+
+    private int find(long key) {
+        int slot = slot(key);
+        while (slotKeys[slot] != EMPTY) {
+            if (slotKeys[slot] == key) {
+                return slotIds[slot];
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return -1;
+    }
+
+    private void insertSlot(long key, int id) {
+        int slot = slot(key);
+        while (slotKeys[slot] != EMPTY) {
+            slot = (slot + 1) & slotMask;
+        }
+        slotKeys[slot] = key;
+        slotIds[slot] = id;
+    }
+
+    /**
+     * removes the key, and moves the keys after it back, so no key is behind an empty slot of its probe
+     */
+    private void removeSlot(long key) {
+        int gap = slot(key);
+        while (slotKeys[gap] != key) {
+            gap = (gap + 1) & slotMask;
+        }
+        int next = (gap + 1) & slotMask;
+        while (slotKeys[next] != EMPTY) {
+            int home = slot(slotKeys[next]);
+            if (((next - home) & slotMask) >= ((next - gap) & slotMask)) {
+                slotKeys[gap] = slotKeys[next];
+                slotIds[gap] = slotIds[next];
+                gap = next;
+            }
+            next = (next + 1) & slotMask;
+        }
+        slotKeys[gap] = EMPTY;
+    }
+
+    private int slot(long key) {
+        // finalizer of SplitMix64
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (key ^ (key >>> 31)) & slotMask;
+    }
+
+    private void grow() {
+        int capacity = 2 * keys.length;
+        keys = Arrays.copyOf(keys, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        freeIds = Arrays.copyOf(freeIds, capacity);
+        unscoredMoves = Arrays.copyOf(unscoredMoves, capacity);
+        for (int type = 0; type < TYPES.length; type++) {
+            heaps[type] = Arrays.copyOf(heaps[type], capacity);
+        }
+
+        // the table stays at most half full
+        long[] oldSlotKeys = slotKeys;
+        int[] oldSlotIds = slotIds;
+        slotKeys = new long[2 * oldSlotKeys.length];
+        slotIds = new int[2 * oldSlotKeys.length];
+        slotMask = slotKeys.length - 1;
+        Arrays.fill(slotKeys, EMPTY);
+        for (int slot = 0; slot < oldSlotKeys.length; slot++) {
+            if (oldSlotKeys[slot] != EMPTY) {
+                insertSlot(oldSlotKeys[slot], oldSlotIds[slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package search;
+
+import model.Node;
+
+/**
+ * Scores the moves of the search. The score of a move only depends on the families it touches and
+ * on data that does not change, and the network is never modified while scoring, so an
+ * implementation can be shared by several searches and called from several threads at the same time.
+ */
+public interface ScoreFunction {
+
+    /**
+     * calculates how much the move would change the score of the network, from the parent sets of
+     * the families the move touches - the network itself is not changed
+     *
+     * @param type   the type of the move
+     * @param parent the parent of the edge the move adds, deletes or reverses
+     * @param child  the child of the edge
+     * @return the difference of the logarithms of the scores after and before the move
+     */
+    double calculateScoreOfMove(MoveType type, Node parent, Node child);
+
+    /**
+     * calculates the scores of all the moves that add a parent to the child or delete one of its
+     * parents in one go
+     *
+     * @param child     the child whose parents change
+     * @param additions the change of the score when the node with the given index is added to the
+     *                  parents is put here, NaN for the child itself and its current parents
+     * @param deletions the change of the score when the parent with the given index is deleted is
+     *                  put here, NaN for the nodes that are not parents of the child
+     */
+    void calculateScoresOfParentChanges(Node child, double[] additions, double[] deletions);
+
+    /**
+     * @return the index of the node in the arrays of {@link #calculateScoresOfParentChanges}
+     */
+    int getIndexOfNode(Node node);
+
+    /**
+     * @return the number of nodes the function scores
+     */
+    int size();
+
+    default void printCacheStatistics() {
+    }
+}
@@ -0,0 +1,180 @@
+package search;
+
+import data.DataStatistics;
+import org.apache.commons.math3.special.Gamma;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything the BGe score needs from the data, computed once and never changed afterwards: the
+ * posterior matrix betaStar (or the statistics its entries are computed from, if they are computed
+ * when they are needed) and the part of the score that only depends on the size of a family.
+ * As nothing in it changes, any number of threads and searches can score with the same object.
+ */
+public final class ScoringStatistics {
+    private final DataStatistics statistics;
+    private final List<String> namesOfNodes;
+    private final Map<String, Integer> nodeIndexes;
+    private final int n;
+    private final int dataLength;
+    private final double v, alpha;
+    // the prior matrix beta is priorScale times the identity
+    private final double priorScale;
+    // v * M / (v + M)
+    private final double posteriorScale;
+    // column-major n x n posterior matrix, null if its entries are computed when they are needed
+    private final double[] betaStar;
+    // by the number of nodes in the family
+    private final double[] familySizeConstants;
+
+    /**
+     * @param statistics the statistics of the data, they must not change while the object is used
+     */
+    public ScoringStatistics(DataStatistics statistics) {
+        this.statistics = statistics;
+        namesOfNodes = Collections.unmodifiableList(statistics.getNamesOfNodes());
+        n = statistics.size();
+        dataLength = statistics.getDataLength();
+
+        v = (double) (n + 1);
+        alpha = (double) n;
+        priorScale = v * (alpha - n + 1) / (v + 1);
+        posteriorScale = (v * dataLength) / (v + dataLength);
+        if (statistics.computesOnDemand()) {
+            betaStar = null;
+        } else {
+            betaStar = new double[n * n];
+            for (int col = 0; col < n; col++) {
+                for (int row = 0; row < n; row++) {
+                    betaStar[row + col * n] = getBetaStar(row, col);
+                }
+            }
+        }
+
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            indexes.put(namesOfNodes.get(i), i);
+        }
+        nodeIndexes = Collections.unmodifiableMap(indexes);
+        familySizeConstants = computeFamilySizeConstants();
+    }
+
+    public List<String> getNamesOfNodes() {
+        return namesOfNodes;
+    }
+
+    /**
+     * @return the index of the column of the data that belongs to the node with the given name
+     */
+    public int getIndexOfNode(String name) {
+        return nodeIndexes.get(name);
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @param numberOfParents         the number of parents in the family
+     * @param logDeterminantOfParents the logarithm of the determinant of the posterior over the parents
+     * @param logDeterminantOfFamily  the logarithm of the determinant of the posterior over the parents and the child
+     * @return the logarithm of the score of the family
+     */
+    double getFamilyScore(int numberOfParents, double logDeterminantOfParents, double logDeterminantOfFamily) {
+        double denominator = numberOfParents == 0 ? 0.0 : empiricalProbability(numberOfParents, logDeterminantOfParents);
+        double numerator = empiricalProbability(numberOfParents + 1, logDeterminantOfFamily);
+        return numerator - denominator;
+    }
+
+    /**
+     * @param lw             the number of nodes
+     * @param logDeterminant the logarithm of the determinant of the posterior matrix over the nodes
+     * @return the logarithm of the probability of the data in the columns of the nodes
+     */
+    private double empiricalProbability(int lw, double logDeterminant) {
+        double alphaw = alpha - n + lw;
+        int M = dataLength;
+
+        /*double ans = Math.pow((1 / (2 * Math.PI)), M * lw / 2) *
+                Math.pow((v / (v + M)), lw / 2) *
+                (c(lw, alphaw) / c(lw, alphaw + M)) *
+                (Math.pow(getDeterminant(betaW), alphaw / 2) / Math.pow(getDeterminant(betaStarW), (alphaw + M) / 2));*/
+        // everything but the determinant of the posterior only depends on the size of the family
+        return familySizeConstants[lw] - ((alphaw + M) / 2) * logDeterminant;
+    }
+
+    /**
+     * the part of the score of a family of lw nodes that does not depend on the data in its columns,
+     * for every lw: the prior is priorScale times the identity, so betaW is priorScale times the
+     * lw x lw identity and the logarithm of its determinant is lw * log(priorScale).
+     * The sum in c(lw, alphaw) runs over the gamma function at (alpha - n + j) / 2 for j = 1..lw,
+     * so the sums of all sizes are the prefix sums of one series and take O(n) together.
+     */
+    private double[] computeFamilySizeConstants() {
+        int M = dataLength;
+        double[] constants = new double[n + 1];
+        double sumOfPrior = 0;
+        double sumOfPosterior = 0;
+        for (int lw = 0; lw <= n; lw++) {
+            if (lw > 0) {
+                sumOfPrior += Gamma.logGamma((alpha - n + lw) / 2);
+                sumOfPosterior += Gamma.logGamma((alpha - n + lw + M) / 2);
+            }
+            double alphaw = alpha - n + lw;
+            constants[lw] = (M * lw / 2) * Math.log(1 / (2 * Math.PI)) +
+                    (lw / 2) * Math.log(v / (v + M)) +
+                    (logc(lw, alphaw, sumOfPrior) - logc(lw, alphaw + M, sumOfPosterior)) +
+                    (alphaw / 2) * lw * Math.log(priorScale);
+        }
+        return constants;
+    }
+
+    private double logc(int nPar, double alphaPar, double sumOfLogGammas) {
+        return -1 * ((alphaPar * nPar / 2) * Math.log(2) + (n * (n - 1) / 4) * Math.log(Math.PI) + sumOfLogGammas);
+    }
+
+    /**
+     * @return one entry of the posterior matrix betaStar
+     */
+    double getPosterior(int row, int col) {
+        return betaStar != null ? betaStar[row + col * n] : getBetaStar(row, col);
+    }
+
+    /**
+     * copies a column of the posterior matrix betaStar
+     */
+    void getPosteriorColumn(int col, double[] target, int offset) {
+        if (betaStar != null) {
+            System.arraycopy(betaStar, col * n, target, offset, n);
+        } else {
+            for (int row = 0; row < n; row++) {
+                target[offset + row] = getBetaStar(row, col);
+            }
+        }
+    }
+
+    /**
+     * copies the diagonal of the posterior matrix betaStar
+     */
+    void getPosteriorDiagonal(double[] target) {
+        for (int i = 0; i < n; i++) {
+            target[i] = getPosterior(i, i);
+        }
+    }
+
+    /**
+     * @return one entry of the posterior matrix (beta + scatter + (mean - mu) * (mean - mu)^T) * v * M / (v + M),
+     * the prior mean mu being 0
+     */
+    private double getBetaStar(int row, int col) {
+        double prior = row == col ? priorScale : 0;
+        return (prior + statistics.getScatter(row, col) + statistics.getMean(row) * statistics.getMean(col)) * posteriorScale;
+    }
+}
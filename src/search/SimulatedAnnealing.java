@@ -3,7 +3,6 @@ package search;
 import model.Edge;
 import model.Network;
 import model.Node;
-import utils.GraphFunctions;
 
 import java.time.LocalTime;
 import java.util.*;
@@ -18,9 +17,12 @@ public class SimulatedAnnealing extends LocalSearching {
     int numberOfTries = 0;
     int maxNumberOfTries = (int) Math.pow(network.getNodes().size(), 2);
     Set<Move> tempMoves = new HashSet<>();
+    // the move drawn last
+    private MoveType proposedType;
+    private Node proposedParent, proposedChild;
 
-    public SimulatedAnnealing(Network network, int numberOfLinesToUse, String fileName, int numberOfSteps, Double lambda) {
-        super(network, numberOfLinesToUse, fileName, numberOfSteps, lambda);
+    public SimulatedAnnealing(Network network, ScoreFunction scoreFunction, int numberOfSteps, Double lambda) {
+        super(network, scoreFunction, numberOfSteps, lambda);
     }
 
     @Override
@@ -52,6 +54,7 @@ public class SimulatedAnnealing extends LocalSearching {
 
         long elapsedTime = System.nanoTime() - startTime;
         System.out.println("The algorithm took " + elapsedTime / 1000000000.0 + " seconds to finish, while making " + numberOfSteps + " steps.");
+        scoreFunction.printCacheStatistics();
     }
 
     private Double calculateIdealTemperature(Set<Move> possibleMoves) {
@@ -79,15 +82,18 @@ public class SimulatedAnnealing extends LocalSearching {
     }
 
     protected Double stepOne(Double T) {
-        Move nextMove;
         while (numberOfTries < maxNumberOfTries) {
-            nextMove = getRandomMove();
+            drawRandomMove();
 
-            nextMove.setScoreToNull();
-            Double prob = Math.exp(nextMove.getScore() / T);
+            // only the move that is made becomes a Move
+            double score = scoreFunction.calculateScoreOfMove(proposedType, proposedParent, proposedChild);
+            double regularizedScore = score - Move.getRegularization(proposedType, network.getEdges().size(), lambda);
+            double prob = Math.exp(regularizedScore / T);
 
-            if ((nextMove.getScore() > 0 ||
-                    (nextMove.getScore() < 0 && random.nextDouble() < prob))) {
+            if ((regularizedScore > 0 ||
+                    (regularizedScore < 0 && random.nextDouble() < prob))) {
+                Move nextMove = new Move(network, new Edge(network, proposedParent, proposedChild), proposedType, lambda, scoreFunction);
+                nextMove.setScore(score);
                 // if the FIFO is full, delete the first element
                 if (lastMoves.size() == maxSize) {
                     lastMoves.remove();
@@ -112,39 +118,38 @@ public class SimulatedAnnealing extends LocalSearching {
         return null;
     }
 
-    private Move getRandomMove() {
-        Move move = null;
+    /**
+     * draws random moves until one can be made and is not taboo, and puts it into proposedType,
+     * proposedParent and proposedChild
+     */
+    private void drawRandomMove() {
+        MoveType type;
         Node parent, child;
-        while (move == null) {
-            parent = getRandomElementFromSet(network.getNodes());
-            child = getRandomElementFromSet(network.getNodes());
+        while (true) {
+            parent = network.getNode(random.nextInt(network.size()));
+            child = network.getNode(random.nextInt(network.size()));
             if (parent == child) continue;
 
-            if (GraphFunctions.containsEdge(network.getEdges(), parent, child)) {
+            if (network.containsEdge(parent, child)) {
                 if (random.nextDouble() > 0.5) {
-                    move = new Move(network, new Edge(network, parent, child), MoveType.deleting, lambda);
+                    type = MoveType.deleting;
+                } else if (parent.getParents().size() < maxNumberOfParents && !network.reversingViolatesDAG(parent, child)) {
+                    type = MoveType.reversing;
                 } else {
-                    if (parent.getParents().size() < maxNumberOfParents && !network.reversingViolatesDAG(parent, child)) {
-                        move = new Move(network, new Edge(network, parent, child), MoveType.reversing, lambda);
-                    }
+                    continue;
                 }
+            } else if (child.getParents().size() < maxNumberOfParents && !network.violatesDAG(parent, child)) {
+                type = MoveType.adding;
             } else {
-                if (child.getParents().size() < maxNumberOfParents && !network.violatesDAG(parent, child)) {
-                    move = new Move(network, new Edge(network, parent, child), MoveType.adding, lambda);
-                }
+                continue;
             }
 
-            if (move != null && lastMovesContain(lastMoves, move)) {
-                move = null;
-                continue;
+            if (!lastMovesContain(type, parent, child)) {
+                proposedType = type;
+                proposedParent = parent;
+                proposedChild = child;
+                return;
             }
         }
-        return move;
-    }
-
-    private <T extends Object> T getRandomElementFromSet(Set<T> set) {
-        Random rnd = new Random();
-        int i = rnd.nextInt(set.size());
-        return (T) set.toArray()[i];
     }
 }
@@ -0,0 +1,88 @@
+package search;
+
+import data.MappedCsvReader;
+import data.DataStatistics;
+import data.SufficientStatistics;
+import data.WindowedStatistics;
+import model.Network;
+
+import java.io.IOException;
+import java.time.LocalTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Learns the structure of a data stream over a sliding window of its most recent rows.
+ * The rows of the data file are taken one after the other as if they arrived in this order.
+ * Each time the window has moved by stride rows, a new search is started in the background on a
+ * snapshot of the window's statistics, continuing from the network the previous search left behind.
+ * The searches run one at a time; if the window moves on while one is still running, only the
+ * latest snapshot waits for its turn.
+ */
+public class SlidingWindowSearch {
+    private final Network network;
+    private final WindowedStatistics windowedStatistics;
+    private final int stride;
+    private final Function<DataStatistics, LocalSearching> searchFactory;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param network            the network the searches work on, it is changed by the background searches
+     * @param windowedStatistics the window the rows are added to
+     * @param stride             the number of rows after which a new search is started
+     * @param searchFactory      creates the search for the statistics of a window
+     */
+    public SlidingWindowSearch(Network network, WindowedStatistics windowedStatistics, int stride,
+                               Function<DataStatistics, LocalSearching> searchFactory) {
+        this.network = network;
+        this.windowedStatistics = windowedStatistics;
+        this.stride = stride;
+        this.searchFactory = searchFactory;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /**
+     * streams the rows of the data file through the window and waits for the last search to finish
+     *
+     * @param dataFileName       csv file containing the data
+     * @param numberOfLinesToUse the first how many rows should be streamed
+     */
+    public void doSearch(String dataFileName, int numberOfLinesToUse) throws IOException, InterruptedException {
+        long startTime = System.nanoTime();
+        int rowsSinceLastSearch = 0;
+        int numberOfRows = 0;
+        try (MappedCsvReader reader = new MappedCsvReader(dataFileName)) {
+            double[] values = new double[reader.getNamesOfNodes().size()];
+            while (numberOfRows < numberOfLinesToUse && reader.readRow(values)) {
+                windowedStatistics.addRow(values);
+                numberOfRows++;
+                rowsSinceLastSearch++;
+                if (windowedStatistics.isFull() && rowsSinceLastSearch >= stride) {
+                    submitSearch(windowedStatistics.snapshot(), numberOfRows);
+                    rowsSinceLastSearch = 0;
+                }
+            }
+        }
+        if (rowsSinceLastSearch > 0 || !windowedStatistics.isFull()) {
+            // the rows at the end of the stream (or all of them, if the window never filled up)
+            submitSearch(windowedStatistics.snapshot(), numberOfRows);
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        long elapsedTime = System.nanoTime() - startTime;
+        System.out.println("Streaming " + numberOfRows + " rows took " + elapsedTime / 1000000000.0 + " seconds.");
+    }
+
+    private void submitSearch(SufficientStatistics statistics, int lastRow) {
+        executor.execute(() -> {
+            System.out.println(LocalTime.now() + ": Searching on the window ending at row " + lastRow + ".");
+            searchFactory.apply(statistics).doSearch();
+            System.out.println(LocalTime.now() + ": Window ending at row " + lastRow + " done, the network has "
+                    + network.getEdges().size() + " edges.");
+        });
+    }
+}
@@ -0,0 +1,114 @@
+package utils;
+
+/**
+ * Cholesky decomposition of small symmetric positive definite matrices stored in primitive arrays.
+ * The matrices of the scoring are of this kind, so their determinant can be read off the diagonal
+ * of the factor, without pivoting and without allocating anything.
+ */
+public class Cholesky {
+
+    /**
+     * factorizes the matrix in place into L * L^T and returns the logarithm of its determinant,
+     * summed up from the diagonal of L, so it neither overflows nor underflows for large matrices
+     *
+     * @param matrix symmetric k x k matrix (row- or column-major, it is the same), the lower
+     *               triangle is overwritten with L in row-major order: L(i, j) is at matrix[i * k + j]
+     * @param k      the size of the matrix
+     * @return the logarithm of the determinant, or NaN if the matrix is not positive definite
+     */
+    public static double logDeterminant(double[] matrix, int k) {
+        double logDeterminant = 0;
+        for (int j = 0; j < k; j++) {
+            int rowJ = j * k;
+            double diagonal = matrix[rowJ + j];
+            for (int p = 0; p < j; p++) {
+                diagonal -= matrix[rowJ + p] * matrix[rowJ + p];
+            }
+            if (!(diagonal > 0)) {
+                return Double.NaN;
+            }
+            double pivot = Math.sqrt(diagonal);
+            matrix[rowJ + j] = pivot;
+            logDeterminant += Math.log(diagonal);
+
+            for (int i = j + 1; i < k; i++) {
+                int rowI = i * k;
+                double sum = matrix[rowI + j];
+                for (int p = 0; p < j; p++) {
+                    sum -= matrix[rowI + p] * matrix[rowJ + p];
+                }
+                matrix[rowI + j] = sum / pivot;
+            }
+        }
+        return logDeterminant;
+    }
+
+    /**
+     * extends the factor of k variables with one more variable in O(k^2): the new row of L is the
+     * solution of L * y = b, where b holds the covariances of the new variable with the others
+     *
+     * @param factor row-major factor L, L(i, j) is at factor[i * stride + j], row k is written
+     * @param k      the number of variables in the factor
+     * @param stride the length of a row of the array, at least k + 1
+     * @param column the covariances of the new variable with the k variables, followed by its variance
+     * @return the square of the new pivot, which is the factor of the determinant the new variable
+     * adds; not positive if the extended matrix is not positive definite
+     */
+    public static double appendRow(double[] factor, int k, int stride, double[] column) {
+        int rowK = k * stride;
+        double diagonal = column[k];
+        for (int i = 0; i < k; i++) {
+            int rowI = i * stride;
+            double sum = column[i];
+            for (int p = 0; p < i; p++) {
+                sum -= factor[rowI + p] * factor[rowK + p];
+            }
+            double y = sum / factor[rowI + i];
+            factor[rowK + i] = y;
+            diagonal -= y * y;
+        }
+        factor[rowK + k] = diagonal > 0 ? Math.sqrt(diagonal) : Double.NaN;
+        return diagonal;
+    }
+
+    /**
+     * removes the variable j from the factor of k variables in O(k^2): the rows after it lose their
+     * column j, and the block below it gets the rank-one update L33 * L33^T + l32 * l32^T, applied
+     * with Givens rotations
+     *
+     * @param factor row-major factor L, L(i, j) is at factor[i * stride + j]
+     * @param k      the number of variables in the factor
+     * @param stride the length of a row of the array
+     * @param j      the position of the variable to remove
+     * @param work   array of at least k elements
+     */
+    public static void deleteRow(double[] factor, int k, int stride, int j, double[] work) {
+        for (int i = j + 1; i < k; i++) {
+            work[i] = factor[i * stride + j];
+        }
+        for (int i = j + 1; i < k; i++) {
+            int rowI = i * stride;
+            double pivot = factor[rowI + i];
+            double r = Math.hypot(pivot, work[i]);
+            double c = r / pivot;
+            double s = work[i] / pivot;
+            factor[rowI + i] = r;
+            for (int t = i + 1; t < k; t++) {
+                int index = t * stride + i;
+                factor[index] = (factor[index] + s * work[t]) / c;
+                work[t] = c * work[t] - s * factor[index];
+            }
+        }
+        // close the gap: row i moves up to row i - 1 and loses its column j
+        for (int i = j + 1; i < k; i++) {
+            int from = i * stride;
+            int to = (i - 1) * stride;
+            for (int col = 0; col < j; col++) {
+                factor[to + col] = factor[from + col];
+            }
+            for (int col = j + 1; col <= i; col++) {
+                factor[to + col - 1] = factor[from + col];
+            }
+        }
+    }
+}
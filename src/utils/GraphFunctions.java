@@ -1,6 +1,7 @@
 package utils;
 
 import model.Edge;
+import model.Network;
 import model.Node;
 
 import java.util.Set;
@@ -29,6 +30,11 @@ public class GraphFunctions {
 
 
     public static boolean containsEdge(Set<Edge> edges, Node parent, Node child) {
+        Network network = parent.getNetwork();
+        if (network != null && network.getEdges() == edges) {
+            // the edges of a network are indexed by their nodes
+            return network.containsEdge(parent, child);
+        }
         for (Edge e : edges) {
             if (e.getChild() == child && e.getParent() == parent) {
                 return true;
@@ -38,6 +44,10 @@ public class GraphFunctions {
     }
 
     public static Edge getEdge(Set<Edge> edges, Node parent, Node child) {
+        Network network = parent.getNetwork();
+        if (network != null && network.getEdges() == edges) {
+            return network.getEdge(parent, child);
+        }
         for (Edge e : edges) {
             if (e.getChild().equals(child) && e.getParent().equals(parent)) {
                 return e;
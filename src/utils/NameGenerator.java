@@ -2,8 +2,6 @@ package utils;
 
 import model.Network;
 
-import static utils.GraphFunctions.containsNodeWithName;
-
 /**
  * Created by Benedek on 3/17/2016.
  */
@@ -19,7 +17,7 @@ public class NameGenerator {
                 builder.append(characters.charAt(rand.nextInt(characters.length())));
             }
             // if it has the node already, start over
-            if (containsNodeWithName(network.getNodes(), builder.toString())) {
+            if (network.containsNode(builder.toString())) {
                 builder = new StringBuilder();
             }
         }